@@ -26,6 +26,8 @@ package de.mariokurz.nettylib;
 
 import de.golgolex.quala.ConsoleColor;
 import de.mariokurz.nettylib.network.client.NetworkClient;
+import de.mariokurz.nettylib.network.protocol.codec.FrameDecoder;
+import de.mariokurz.nettylib.network.protocol.codec.FrameEncoder;
 import de.mariokurz.nettylib.network.protocol.codec.dynamic.DynamicMessageCodec;
 import de.mariokurz.nettylib.network.protocol.codec.nettyextras.serialization.ClassResolvers;
 import de.mariokurz.nettylib.network.protocol.codec.nettyextras.serialization.ObjectDecoder;
@@ -33,7 +35,10 @@ import de.mariokurz.nettylib.network.protocol.codec.nettyextras.serialization.Ob
 import de.mariokurz.nettylib.network.protocol.codec.selfbuild.SelfBuildMessageCodec;
 import de.mariokurz.nettylib.network.protocol.codec.osgan.OsganMessageCodec;
 import de.mariokurz.nettylib.network.protocol.register.PacketRegistry;
+import de.mariokurz.nettylib.network.protocol.routing.RoutedFrameForwarder;
 import io.netty5.channel.Channel;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.handler.codec.LengthFieldBasedFrameDecoder;
 
 import java.util.UUID;
 import java.util.logging.Level;
@@ -43,6 +48,8 @@ public class NettyLib {
 
     public static final UUID SYSTEM_UUID = UUID.fromString("0f0f0f0f-0f0f-0f0f-f0f0-0f0f0f0f0f0f");
     public static boolean DEV_MODE = false;
+    // The largest encoded packet which is accepted, larger frames close the connection
+    public static int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
     private static final Logger logger = Logger.getLogger("NettyLib");
     public static org.slf4j.Logger slf4jLogger;
 
@@ -88,16 +95,37 @@ public class NettyLib {
     }
 
     public static void initChannelPipeline(Channel channel, Codec codec, PacketRegistry packetRegistry) {
+        initChannelPipeline(channel, codec, packetRegistry, null);
+    }
+
+    public static void initChannelPipeline(Channel channel, Codec codec, PacketRegistry packetRegistry, RoutedFrameForwarder routedFrameForwarder) {
         switch (codec) {
             case NETTY_EXTRAS -> channel.pipeline()
                     .addLast(new ObjectDecoder(ClassResolvers.softCachingResolver(NetworkClient.class.getClassLoader())))
                     .addLast(new ObjectEncoder());
-            case OSGAN -> channel.pipeline().addLast(new OsganMessageCodec());
-            case SELF_BUILD -> channel.pipeline().addLast(new SelfBuildMessageCodec(packetRegistry));
-            case DYNAMIC_SELF_NETTY, DYNAMIC_SELF_OSGAN -> channel.pipeline().addLast(new DynamicMessageCodec(codec, packetRegistry));
+            case OSGAN -> initFraming(channel, routedFrameForwarder, new OsganMessageCodec());
+            case SELF_BUILD -> initFraming(channel, routedFrameForwarder, new SelfBuildMessageCodec(packetRegistry));
+            case DYNAMIC_SELF_NETTY, DYNAMIC_SELF_OSGAN -> initFraming(channel, routedFrameForwarder, new DynamicMessageCodec(codec, packetRegistry));
         }
     }
 
+    public static boolean framed(Codec codec) {
+        // Only the framed codecs can carry routed frames
+        return codec != Codec.NETTY_EXTRAS;
+    }
+
+    private static void initFraming(Channel channel, RoutedFrameForwarder routedFrameForwarder, ChannelHandler messageCodec) {
+        // Prefix every packet with its length, so packets which arrive in the same read are decoded one by one,
+        // and with its frame type, so routed packets are forwarded without decoding them
+        var frameDecoder = new FrameDecoder(routedFrameForwarder);
+        channel.pipeline()
+                .addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4))
+                .addLast(frameDecoder)
+                .addLast(new FrameEncoder())
+                .addLast(messageCodec)
+                .addLast(frameDecoder.forwardedPacketHandler());
+    }
+
     public static void debug(Level level, Class<?> executedClass, String string, Object... var) {
         if (DEV_MODE) {
             log(level, executedClass.getSimpleName() + ": " + string, var);
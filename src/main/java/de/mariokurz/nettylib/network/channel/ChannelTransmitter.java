@@ -25,13 +25,20 @@ package de.mariokurz.nettylib.network.channel;
  */
 
 import de.mariokurz.nettylib.network.ChannelIdentity;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.query.GatherMode;
+import de.mariokurz.nettylib.network.protocol.query.QueryPacketManager;
+import de.mariokurz.nettylib.network.protocol.query.ScatterGather;
 import io.netty5.channel.Channel;
 import io.netty5.channel.ChannelHandlerContext;
 import lombok.NonNull;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 public interface ChannelTransmitter {
@@ -75,6 +82,84 @@ public interface ChannelTransmitter {
      */
     NetworkChannel getNetworkChannel(@NonNull UUID uniqueId);
 
+    /**
+     * Retrieves the query packet manager which sends the queries of this transmitter.
+     *
+     * @return The query packet manager.
+     */
+    QueryPacketManager queryPacketManager();
+
+    /**
+     * Sends one query to many network channels and gathers their responses.
+     *
+     * @param packet          The query packet, it is encoded only once.
+     * @param networkChannels The network channels to send the query to.
+     * @param gatherMode      Decides when enough responses were gathered.
+     * @return The scatter-gather query, or null if the packet is not valid.
+     */
+    default <T extends Packet> ScatterGather<T> scatterQuery(
+            @NonNull Object packet,
+            @NonNull Collection<NetworkChannel> networkChannels,
+            @NonNull GatherMode gatherMode
+    ) {
+        return this.queryPacketManager().scatterQuery(packet, networkChannels, gatherMode);
+    }
+
+    /**
+     * Sends one query to many network channels and gathers their responses.
+     *
+     * @param packet            The query packet, it is encoded only once.
+     * @param networkChannels   The network channels to send the query to.
+     * @param gatherMode        Decides when enough responses were gathered.
+     * @param requiredResponses The number of responses which satisfy the gather mode.
+     * @param timeout           The time to wait for the responses.
+     * @param timeUnit          The unit of the timeout.
+     * @return The scatter-gather query, or null if the packet is not valid.
+     */
+    default <T extends Packet> ScatterGather<T> scatterQuery(
+            @NonNull Object packet,
+            @NonNull Collection<NetworkChannel> networkChannels,
+            @NonNull GatherMode gatherMode,
+            int requiredResponses,
+            long timeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        return this.queryPacketManager().scatterQuery(packet, networkChannels, gatherMode, requiredResponses, timeout, timeUnit);
+    }
+
+    /**
+     * Sends one query to all authorized network channels except those that match the given predicate
+     * and gathers their responses.
+     *
+     * @param packet     The query packet, it is encoded only once.
+     * @param ifNot      Predicate specifying which network channels should be excluded from receiving the query.
+     * @param gatherMode Decides when enough responses were gathered.
+     * @return The scatter-gather query, or null if the packet is not valid.
+     */
+    default <T extends Packet> ScatterGather<T> scatterQueryToAll(
+            @NonNull Object packet,
+            @Nullable Predicate<NetworkChannel> ifNot,
+            @NonNull GatherMode gatherMode
+    ) {
+        var networkChannels = this.getNetworkChannels().stream()
+                .filter(networkChannel -> ifNot == null || !ifNot.test(networkChannel))
+                .toList();
+        return this.scatterQuery(packet, networkChannels, gatherMode);
+    }
+
+    /**
+     * Retrieves the number of queries and routings per peer which are still waiting for an answer.
+     *
+     * @return The in-flight requests keyed by the identity of the network channel they were sent over.
+     */
+    default Map<ChannelIdentity, Integer> inFlightRequests() {
+        var inFlightRequests = new HashMap<ChannelIdentity, Integer>();
+        for (var networkChannel : this.getNetworkChannels()) {
+            inFlightRequests.put(networkChannel.channelIdentity(), networkChannel.inFlightRequests().get());
+        }
+        return inFlightRequests;
+    }
+
     /**
      * Retrieves the network channel associated with the given channel identity.
      *
@@ -91,4 +176,11 @@ public interface ChannelTransmitter {
      */
     void dispatchPacketObject(@NonNull Object packetObj, @NonNull ChannelHandlerContext channelHandlerContext);
 
+    /**
+     * Signals that the current read cycle of a channel is complete, so packets collected for batch handlers are passed on.
+     *
+     * @param channelHandlerContext The channel handler context whose read cycle completed.
+     */
+    void dispatchReadComplete(@NonNull ChannelHandlerContext channelHandlerContext);
+
 }
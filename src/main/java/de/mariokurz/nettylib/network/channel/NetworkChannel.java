@@ -29,24 +29,42 @@ import de.mariokurz.nettylib.NettyLib;
 import de.mariokurz.nettylib.event.NetworkChannelPacketSendEvent;
 import de.mariokurz.nettylib.network.ChannelIdentity;
 import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.codec.EncodedPacket;
+import de.mariokurz.nettylib.network.protocol.interest.PacketInterests;
 import de.mariokurz.nettylib.network.protocol.query.QueryPacketManager;
+import de.mariokurz.nettylib.network.protocol.query.stream.QueryStream;
+import de.mariokurz.nettylib.network.protocol.routing.MulticastResult;
 import de.mariokurz.nettylib.network.protocol.routing.RoutingPacketManager;
 import de.mariokurz.nettylib.network.protocol.routing.RoutingResult;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingTarget;
 import de.mariokurz.nettylib.utils.NettyUtils;
 import io.netty5.channel.Channel;
+import io.netty5.util.AttributeKey;
 import io.netty5.util.concurrent.Future;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 
 @Getter
 @AllArgsConstructor
 public class NetworkChannel {
 
+    // The network channel a netty channel belongs to, set once the channel is authorized
+    static final AttributeKey<NetworkChannel> NETWORK_CHANNEL = AttributeKey.valueOf("nettylib-network-channel");
+
     protected final ChannelIdentity channelIdentity;
     protected final QueryPacketManager queryPacketManager;
     protected final RoutingPacketManager routingPacketManager;
@@ -54,6 +72,10 @@ public class NetworkChannel {
     protected Channel channel;
     @Setter
     protected boolean inactive;
+    // Queries and routings sent over this network channel which are still waiting for an answer
+    protected final AtomicInteger inFlightRequests = new AtomicInteger();
+    // The packet types the client of this network channel has receivers for, only known on the server
+    protected final PacketInterests packetInterests = new PacketInterests();
 
     /**
      * Sends one or more packets asynchronously over the network channel.
@@ -63,6 +85,12 @@ public class NetworkChannel {
     public void sendPacket(
             @NonNull Object... packets
     ) {
+        // Check if the current thread is in the event loop
+        if (!this.channel.executor().inEventLoop()) {
+            // If no, write all packets in a single task instead of one task per write
+            this.channel.executor().execute(() -> this.sendPacket(packets));
+            return;
+        }
         // Iterate through each packet in the packets array
         for (var packet : packets) {
             // Write the packet to the channel without waiting for completion
@@ -110,6 +138,84 @@ public class NetworkChannel {
         }
     }
 
+    /**
+     * Sends a packet which was encoded up front, e.g. once for many network channels.
+     *
+     * @param encodedPacket The encoded packet, it must have been encoded with the codec of this channel.
+     */
+    public void sendEncodedPacket(
+            @NonNull EncodedPacket encodedPacket
+    ) {
+        // Trigger a packet send event with the packet the bytes were encoded from
+        EventManager.call(new NetworkChannelPacketSendEvent(this, encodedPacket.packet()));
+        // Every write gets its own view of the shared bytes, it is released once written
+        this.channel.writeAndFlush(encodedPacket.newBuffer());
+    }
+
+    /**
+     * Sends one packet to many network channels. The packet is encoded only once for every codec the receivers use,
+     * the network channels of a codec write the same read-only bytes, so the cost of encoding does not grow with the
+     * number of receivers. Receivers whose codec can't encode up front encode the packet themselves.
+     * Inactive network channels are skipped.
+     *
+     * @param packet          The packet to send.
+     * @param networkChannels The receivers.
+     * @param ifNot           Predicate specifying which network channels should be excluded from receiving the packet.
+     * @return The number of network channels the packet was sent to.
+     */
+    public static int sendPacketToAll(
+            @NonNull Object packet,
+            @NonNull List<NetworkChannel> networkChannels,
+            @Nullable Predicate<NetworkChannel> ifNot
+    ) {
+        List<NetworkChannel> receivers = new ArrayList<>(networkChannels.size());
+        for (var i = 0; i < networkChannels.size(); i++) {
+            var networkChannel = networkChannels.get(i);
+            if (!networkChannel.inactive() && (ifNot == null || !ifNot.test(networkChannel))) {
+                receivers.add(networkChannel);
+            }
+        }
+        // The codec can't encode up front, every network channel encodes the packet itself
+        for (var networkChannel : sendEncodedPacket(packet, receivers)) {
+            networkChannel.sendPacket(packet);
+        }
+        return receivers.size();
+    }
+
+    /**
+     * Sends one packet to many network channels, it is encoded once for all network channels whose codecs encode it
+     * the same way, see {@link EncodedPacket#encoding(Object, Channel)}.
+     *
+     * @param packet          The packet to send.
+     * @param networkChannels The receivers.
+     * @return The receivers the packet was not sent to, because their codec can't encode it up front.
+     */
+    public static List<NetworkChannel> sendEncodedPacket(
+            @NonNull Object packet,
+            @NonNull List<NetworkChannel> networkChannels
+    ) {
+        List<NetworkChannel> unencoded = new ArrayList<>();
+        // Encode lazily with the first receiver of every encoding, so nothing is encoded if nobody receives the packet
+        Map<Object, EncodedPacket> encodedPackets = new HashMap<>();
+        try {
+            for (var networkChannel : networkChannels) {
+                var encoding = EncodedPacket.encoding(packet, networkChannel.channel());
+                var encodedPacket = encoding == null ? null : encodedPackets.computeIfAbsent(encoding,
+                        unused -> EncodedPacket.encode(packet, networkChannel.channel()));
+                if (encodedPacket == null) {
+                    unencoded.add(networkChannel);
+                    continue;
+                }
+                networkChannel.sendEncodedPacket(encodedPacket);
+            }
+        } finally {
+            for (var encodedPacket : encodedPackets.values()) {
+                encodedPacket.close();
+            }
+        }
+        return unencoded;
+    }
+
     /**
      * Sends a packet synchronously over the network channel.
      *
@@ -126,10 +232,10 @@ public class NetworkChannel {
     }
 
     /**
-     * Sends a query packet asynchronously and returns a CompletableFuture for the response.
+     * Sends a query packet and waits for the response.
      *
      * @param packet The query packet to be sent.
-     * @return A CompletableFuture representing the response packet.
+     * @return The response packet, or null if no response arrived in time.
      */
     public <T extends Packet> T sendQuery(
             @NonNull Object packet
@@ -151,6 +257,113 @@ public class NetworkChannel {
         return this.queryPacketManager.sendQueryFuture(packet, this);
     }
 
+    /**
+     * Sends a query packet and waits for the response at most the given time.
+     *
+     * @param packet   The query packet to be sent.
+     * @param timeout  The time to wait for the response.
+     * @param timeUnit The unit of the timeout.
+     * @return The response packet, or null if no response arrived in time.
+     */
+    public <T extends Packet> T sendQuery(
+            @NonNull Object packet,
+            long timeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        // Delegate sending the query packet to the query packet manager
+        return this.queryPacketManager.sendQuery(packet, this, timeout, timeUnit);
+    }
+
+    /**
+     * Sends a query packet asynchronously and returns a CompletableFuture for the response.
+     *
+     * @param packet   The query packet to be sent.
+     * @param timeout  The time to wait for the response before the future is completed with null.
+     * @param timeUnit The unit of the timeout.
+     * @return A CompletableFuture representing the response packet.
+     */
+    public <T extends Packet> CompletableFuture<T> sendQueryFuture(
+            @NonNull Object packet,
+            long timeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        // Delegate sending the query packet to the query packet manager
+        return this.queryPacketManager.sendQueryFuture(packet, this, timeout, timeUnit);
+    }
+
+    /**
+     * Sends many query packets at once and waits for all of their responses.
+     *
+     * @param packets The query packets to be sent.
+     * @return The response packets in the order of the sent packets, a response that did not arrive in time is null.
+     */
+    public <T extends Packet> List<T> sendQueries(
+            @NonNull Collection<?> packets
+    ) {
+        // Delegate sending the query packets to the query packet manager
+        return this.queryPacketManager.sendQueries(packets, this);
+    }
+
+    /**
+     * Sends many query packets at once with a single flush and returns a CompletableFuture for all responses.
+     *
+     * @param packets The query packets to be sent.
+     * @return A CompletableFuture representing the response packets in the order of the sent packets.
+     */
+    public <T extends Packet> CompletableFuture<List<T>> sendQueriesFuture(
+            @NonNull Collection<?> packets
+    ) {
+        // Delegate sending the query packets to the query packet manager
+        return this.queryPacketManager.sendQueriesFuture(packets, this);
+    }
+
+    /**
+     * Sends many query packets at once with a single flush and returns a CompletableFuture for all responses.
+     *
+     * @param packets  The query packets to be sent.
+     * @param timeout  The time to wait for the responses before the missing ones are null.
+     * @param timeUnit The unit of the timeout.
+     * @return A CompletableFuture representing the response packets in the order of the sent packets.
+     */
+    public <T extends Packet> CompletableFuture<List<T>> sendQueriesFuture(
+            @NonNull Collection<?> packets,
+            long timeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        // Delegate sending the query packets to the query packet manager
+        return this.queryPacketManager.sendQueriesFuture(packets, this, timeout, timeUnit);
+    }
+
+    /**
+     * Opens a query whose responder answers with a stream of packets.
+     *
+     * @param packet The query packet to be sent once the stream is subscribed.
+     * @return A publisher of the streamed response packets.
+     */
+    public <T extends Packet> QueryStream<T> sendQueryStream(
+            @NonNull Object packet
+    ) {
+        // Delegate opening the query stream to the query packet manager
+        return this.queryPacketManager.sendQueryStream(packet, this);
+    }
+
+    /**
+     * Opens a query whose responder answers with a stream of packets.
+     *
+     * @param packet      The query packet to be sent once the stream is subscribed.
+     * @param idleTimeout The time the responder may take to send a requested packet before the stream fails.
+     * @param timeUnit    The unit of the idle timeout.
+     * @return A publisher of the streamed response packets.
+     */
+    public <T extends Packet> QueryStream<T> sendQueryStream(
+            @NonNull Object packet,
+            long idleTimeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        // Delegate opening the query stream to the query packet manager
+        return this.queryPacketManager.sendQueryStream(packet, this, idleTimeout, timeUnit);
+    }
+
     /**
      * Sends a packet to a specified receiver and waits for a routing result synchronously.
      *
@@ -181,6 +394,97 @@ public class NetworkChannel {
         return this.routingPacketManager.sendRoutedPacketFuture(packet, this, receiverIdentity);
     }
 
+    /**
+     * Sends a packet to many receivers through the server, it is encoded once and forwarded without decoding.
+     *
+     * @param packet The packet to send.
+     * @param target The receivers of the packet.
+     * @return True if the packet was written.
+     */
+    public boolean sendMulticastPacket(
+            @NonNull Object packet,
+            @NonNull RoutingTarget target
+    ) {
+        // Delegate the task to the routing packet manager
+        return this.routingPacketManager.sendMulticastPacket(packet, this, target);
+    }
+
+    /**
+     * Sends a packet to many receivers through the server and waits for the aggregated delivery result asynchronously.
+     *
+     * @param packet The packet to send.
+     * @param target The receivers of the packet.
+     * @return A CompletableFuture containing the delivery result.
+     */
+    public CompletableFuture<MulticastResult> sendMulticastPacketFuture(
+            @NonNull Object packet,
+            @NonNull RoutingTarget target
+    ) {
+        // Delegate the task to the routing packet manager
+        return this.routingPacketManager.sendMulticastPacketFuture(packet, this, target);
+    }
+
+    /**
+     * Sends a query to a specified receiver through the server and waits for its response synchronously.
+     *
+     * @param packet           The routing packet to send as query.
+     * @param receiverIdentity The identity of the receiver.
+     * @param timeout          The time to wait for the response.
+     * @param timeUnit         The unit of the timeout.
+     * @return The response packet, or null if the receiver is unknown or does not answer in time.
+     */
+    public <T extends Packet> T sendRoutedQuery(
+            @NonNull Object packet,
+            @NonNull ChannelIdentity receiverIdentity,
+            long timeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        // Delegate the task to the routing packet manager
+        return this.routingPacketManager.sendRoutedQuery(packet, this, receiverIdentity, timeout, timeUnit);
+    }
+
+    /**
+     * Sends a query to a specified receiver through the server and waits for its response asynchronously.
+     *
+     * @param packet           The routing packet to send as query.
+     * @param receiverIdentity The identity of the receiver.
+     * @param timeout          The time to wait for the response.
+     * @param timeUnit         The unit of the timeout.
+     * @return A CompletableFuture containing the response packet, or null if the receiver is unknown or does not answer in time.
+     */
+    public <T extends Packet> CompletableFuture<T> sendRoutedQueryFuture(
+            @NonNull Object packet,
+            @NonNull ChannelIdentity receiverIdentity,
+            long timeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        // Delegate the task to the routing packet manager
+        return this.routingPacketManager.sendRoutedQueryFuture(packet, this, receiverIdentity, timeout, timeUnit);
+    }
+
+
+    /**
+     * Retrieves the network channel a netty channel belongs to, without any lookup.
+     * On a client every network channel shares the connection to the server, it belongs to the client's own one.
+     *
+     * @param channel The netty channel.
+     * @return The network channel, or null if the channel is not authorized yet.
+     */
+    public static NetworkChannel of(
+            @NonNull Channel channel
+    ) {
+        return channel.attr(NETWORK_CHANNEL).get();
+    }
+
+    /**
+     * Retrieves the requests of the connection behind this network channel which are still waiting for an answer.
+     * On a client every network channel shares the connection to the server.
+     *
+     * @return The pending requests of the connection.
+     */
+    public PendingRequests pendingRequests() {
+        return PendingRequests.of(this.channel);
+    }
 
     /**
      * Writes a packet to the network channel and optionally flushes the channel.
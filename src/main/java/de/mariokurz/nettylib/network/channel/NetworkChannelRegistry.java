@@ -0,0 +1,193 @@
+package de.mariokurz.nettylib.network.channel;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 22:58 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import io.netty5.channel.Channel;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * The network channels of a transmitter, indexed by unique ID and by lower-cased namespace, so looking one up
+ * does not scan all of them. The netty channel knows its network channel itself, see {@link NetworkChannel#of(Channel)}.
+ * Lookups don't lock, changes are serialized so the indexes never disagree about a network channel once the change returned.
+ * Every change publishes an immutable snapshot of all network channels, broadcasts iterate it without copying.
+ */
+public class NetworkChannelRegistry {
+
+    private final Map<UUID, NetworkChannel> byUniqueId = new ConcurrentHashMap<>();
+    // Many network channels may share a namespace
+    private final Map<String, Set<NetworkChannel>> byNamespace = new ConcurrentHashMap<>();
+    // Rebuilt on every change, read without locking
+    private volatile List<NetworkChannel> snapshot = List.of();
+
+    /**
+     * Registers a network channel, replacing the one registered with the same unique ID.
+     *
+     * @param networkChannel The network channel.
+     * @return The replaced network channel, or null if there was none.
+     */
+    public synchronized NetworkChannel register(
+            @NonNull NetworkChannel networkChannel
+    ) {
+        var replaced = this.byUniqueId.put(networkChannel.channelIdentity().uniqueId(), networkChannel);
+        if (replaced != null) {
+            this.unindex(replaced);
+        }
+        this.byNamespace.computeIfAbsent(namespaceKey(networkChannel.channelIdentity().namespace()), key -> new CopyOnWriteArraySet<>())
+                .add(networkChannel);
+        // On a client every network channel shares the connection to the server, the first one registered owns it
+        networkChannel.channel().attr(NetworkChannel.NETWORK_CHANNEL).setIfAbsent(networkChannel);
+        this.snapshot = List.copyOf(this.byUniqueId.values());
+        return replaced;
+    }
+
+    /**
+     * Unregisters the network channel with the given unique ID.
+     *
+     * @param uniqueId The unique ID of the network channel.
+     * @return The unregistered network channel, or null if there was none.
+     */
+    public synchronized NetworkChannel unregister(
+            @NonNull UUID uniqueId
+    ) {
+        var removed = this.byUniqueId.remove(uniqueId);
+        if (removed != null) {
+            this.unindex(removed);
+            this.snapshot = List.copyOf(this.byUniqueId.values());
+        }
+        return removed;
+    }
+
+    /**
+     * Retrieves the active network channel with the given unique ID.
+     *
+     * @param uniqueId The unique ID.
+     * @return The network channel, or null if there is no active one.
+     */
+    public NetworkChannel get(
+            @NonNull UUID uniqueId
+    ) {
+        return active(this.byUniqueId.get(uniqueId));
+    }
+
+    /**
+     * Retrieves the active network channel of a netty channel.
+     *
+     * @param channel The netty channel.
+     * @return The network channel, or null if there is no active one.
+     */
+    public NetworkChannel get(
+            @NonNull Channel channel
+    ) {
+        return active(NetworkChannel.of(channel));
+    }
+
+    /**
+     * Retrieves an active network channel of a namespace, the namespace is matched ignoring case.
+     *
+     * @param namespace The namespace.
+     * @return The first active network channel of the namespace, or null if there is none.
+     */
+    public NetworkChannel get(
+            @NonNull String namespace
+    ) {
+        for (var networkChannel : this.namespace(namespace)) {
+            if (!networkChannel.inactive()) {
+                return networkChannel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves all network channels of a namespace, the namespace is matched ignoring case.
+     *
+     * @param namespace The namespace.
+     * @return The network channels of the namespace, including inactive ones.
+     */
+    public Collection<NetworkChannel> namespace(
+            @NonNull String namespace
+    ) {
+        var networkChannels = this.byNamespace.get(namespaceKey(namespace));
+        return networkChannels == null ? List.of() : Collections.unmodifiableSet(networkChannels);
+    }
+
+    /**
+     * Retrieves all registered network channels, as of the last change.
+     * The list is immutable and shared, so retrieving it does not allocate.
+     *
+     * @return The network channels, including inactive ones.
+     */
+    public List<NetworkChannel> values() {
+        return this.snapshot;
+    }
+
+    /**
+     * Removes a network channel from the namespace index and detaches it from its netty channel.
+     *
+     * @param networkChannel The network channel.
+     */
+    private void unindex(
+            @NonNull NetworkChannel networkChannel
+    ) {
+        var key = namespaceKey(networkChannel.channelIdentity().namespace());
+        this.byNamespace.computeIfPresent(key, (namespace, networkChannels) -> {
+            networkChannels.remove(networkChannel);
+            return networkChannels.isEmpty() ? null : networkChannels;
+        });
+        var attribute = networkChannel.channel().attr(NetworkChannel.NETWORK_CHANNEL);
+        if (attribute.compareAndSet(networkChannel, null)) {
+            // Hand the shared connection over to another network channel using it
+            for (var other : this.byUniqueId.values()) {
+                if (other.channel() == networkChannel.channel()) {
+                    attribute.setIfAbsent(other);
+                    break;
+                }
+            }
+        }
+    }
+
+    private static String namespaceKey(
+            @NonNull String namespace
+    ) {
+        return namespace.toLowerCase(Locale.ROOT);
+    }
+
+    private static NetworkChannel active(
+            @Nullable NetworkChannel networkChannel
+    ) {
+        return networkChannel == null || networkChannel.inactive() ? null : networkChannel;
+    }
+}
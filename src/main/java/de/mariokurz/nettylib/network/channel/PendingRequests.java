@@ -0,0 +1,213 @@
+package de.mariokurz.nettylib.network.channel;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 20:54 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.query.ReceivedQuery;
+import de.mariokurz.nettylib.network.protocol.query.stream.QueryStreamResponder;
+import de.mariokurz.nettylib.network.protocol.query.stream.QueryStreamSubscription;
+import de.mariokurz.nettylib.network.protocol.routing.MulticastResult;
+import de.mariokurz.nettylib.network.protocol.routing.RelayedQuery;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingPacketManager;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingResult;
+import de.mariokurz.nettylib.utils.ConcurrentLongMap;
+import io.netty5.channel.Channel;
+import io.netty5.util.AttributeKey;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The requests of one connection that are waiting for an answer, keyed by their request ID.
+ * Request IDs are counted up per connection, so they are only unique within it. The side which opened
+ * the connection uses odd IDs and the accepting side even ones, so a request of the peer can never be
+ * mistaken for the answer to one of our own requests.
+ * Once the connection goes inactive every pending request fails, so callers do not wait out their timeouts.
+ */
+@Getter
+public class PendingRequests {
+
+    private static final AttributeKey<PendingRequests> PENDING_REQUESTS = AttributeKey.valueOf("nettylib-pending-requests");
+    // IDs from 2^62 upwards are shared by requests sent over many connections at once, the counters of single connections never get there
+    private static final AtomicLong SHARED_REQUEST_IDS = new AtomicLong(1L << 62);
+
+    private final boolean initiator;
+    private final AtomicLong requestIds;
+    private final ConcurrentLongMap<CompletableFuture<Packet>> queries = new ConcurrentLongMap<>();
+    private final ConcurrentLongMap<CompletableFuture<RoutingResult>> routings = new ConcurrentLongMap<>();
+    private final ConcurrentLongMap<CompletableFuture<MulticastResult>> multicasts = new ConcurrentLongMap<>();
+    // Query streams we requested, and query streams the peer requested from us
+    private final ConcurrentLongMap<QueryStreamSubscription<?>> streams = new ConcurrentLongMap<>();
+    private final ConcurrentLongMap<QueryStreamResponder> streamResponders = new ConcurrentLongMap<>();
+    // Queries of the peer which our receivers are answering right now
+    private final ConcurrentLongMap<ReceivedQuery> receivedQueries = new ConcurrentLongMap<>();
+    // Routed queries the server forwarded over this connection, keyed by the ID they were forwarded under
+    private final ConcurrentLongMap<RelayedQuery> relayedQueries = new ConcurrentLongMap<>();
+    private volatile boolean closed;
+
+    private PendingRequests(
+            boolean initiator
+    ) {
+        this.initiator = initiator;
+        // The first ID is 1 on the opening side and 2 on the accepting side
+        this.requestIds = new AtomicLong(initiator ? -1 : 0);
+    }
+
+    /**
+     * Generates the next request ID of this connection.
+     *
+     * @return The request ID, never {@link Packet#NO_QUERY_ID}.
+     */
+    public long nextRequestId() {
+        long requestId;
+        do {
+            requestId = this.requestIds.addAndGet(2);
+        } while (requestId == Packet.NO_QUERY_ID);
+        return requestId;
+    }
+
+    /**
+     * Generates a request ID which is unique on every connection, so one request can be sent
+     * over many connections under the same ID.
+     *
+     * @param initiator Whether the connections were opened by this side, see {@link #initiator()}.
+     * @return The request ID.
+     */
+    public static long nextSharedRequestId(
+            boolean initiator
+    ) {
+        var requestId = SHARED_REQUEST_IDS.addAndGet(2);
+        return initiator ? requestId + 1 : requestId;
+    }
+
+    /**
+     * Checks whether a request ID was generated on this side of the connection,
+     * a packet carrying it is then an answer to one of our own requests.
+     *
+     * @param requestId The request ID to check.
+     * @return True if the ID belongs to our own requests.
+     */
+    public boolean ownsRequestId(
+            long requestId
+    ) {
+        return requestId != Packet.NO_QUERY_ID && ((requestId & 1) == 1) == this.initiator;
+    }
+
+    /**
+     * Retrieves the number of requests of this connection which are still waiting for an answer.
+     *
+     * @return The number of pending queries and routings.
+     */
+    public int inFlight() {
+        return this.queries.size() + this.routings.size() + this.multicasts.size() + this.streams.size();
+    }
+
+    /**
+     * Fails a request if it was registered after the connection went inactive.
+     * Must be called after the request has been put into its table, so it can't slip past {@link #failAll()}.
+     *
+     * @param future The future of the registered request.
+     * @return True if the request was failed.
+     */
+    public boolean failIfClosed(
+            @NonNull CompletableFuture<?> future
+    ) {
+        if (!this.closed) {
+            return false;
+        }
+        return future.completeExceptionally(new ClosedChannelException());
+    }
+
+    /**
+     * Fails every pending request of this connection with a {@link ClosedChannelException}.
+     * Called once the connection goes inactive, requests registered afterwards fail right away.
+     *
+     * @return The number of requests which have been failed.
+     */
+    public int failAll() {
+        this.closed = true;
+        var failed = 0;
+        // Clearing hands out every future only once, even if failAll races with itself
+        for (var future : this.queries.clear()) {
+            if (future.completeExceptionally(new ClosedChannelException())) {
+                failed++;
+            }
+        }
+        for (var future : this.routings.clear()) {
+            if (future.completeExceptionally(new ClosedChannelException())) {
+                failed++;
+            }
+        }
+        for (var future : this.multicasts.clear()) {
+            if (future.completeExceptionally(new ClosedChannelException())) {
+                failed++;
+            }
+        }
+        for (var subscription : this.streams.clear()) {
+            if (subscription.fail(new ClosedChannelException())) {
+                failed++;
+            }
+        }
+        // Nobody is left to receive what we stream, stop producing
+        for (var responder : this.streamResponders.clear()) {
+            responder.cancel();
+        }
+        for (var receivedQuery : this.receivedQueries.clear()) {
+            receivedQuery.cancel();
+            receivedQuery.unregister(this);
+        }
+        // The receiver of the routed queries is gone, tell the requesters right away
+        for (var relayedQuery : this.relayedQueries.clear()) {
+            relayedQuery.timeout().cancel();
+            RoutingPacketManager.failRelayedQuery(relayedQuery.requester(), relayedQuery.queryId(), RoutingResult.FAILED_NO_CHANNEL);
+        }
+        return failed;
+    }
+
+    /**
+     * Retrieves the pending requests of a connection, creating them on first use.
+     *
+     * @param channel The netty channel of the connection.
+     * @return The pending requests of the connection.
+     */
+    public static PendingRequests of(
+            @NonNull Channel channel
+    ) {
+        var attribute = channel.attr(PENDING_REQUESTS);
+        var pendingRequests = attribute.get();
+        if (pendingRequests == null) {
+            // Accepted channels have the server channel as parent, the opening side has none
+            var created = new PendingRequests(channel.parent() == null);
+            pendingRequests = attribute.setIfAbsent(created);
+            if (pendingRequests == null) {
+                pendingRequests = created;
+            }
+        }
+        return pendingRequests;
+    }
+}
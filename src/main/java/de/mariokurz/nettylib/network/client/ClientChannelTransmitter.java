@@ -28,7 +28,9 @@ import de.mariokurz.nettylib.NettyLib;
 import de.mariokurz.nettylib.network.ChannelIdentity;
 import de.mariokurz.nettylib.network.channel.ChannelTransmitter;
 import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.channel.NetworkChannelRegistry;
 import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.query.QueryPacketManager;
 import io.netty5.channel.Channel;
 import io.netty5.channel.ChannelHandlerContext;
 import lombok.AllArgsConstructor;
@@ -36,8 +38,6 @@ import lombok.NonNull;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -46,7 +46,8 @@ import java.util.logging.Level;
 public class ClientChannelTransmitter implements ChannelTransmitter {
 
     private final NetworkClient networkClient;
-    private final Map<UUID, NetworkChannel> networkChannels = new HashMap<>();
+    // Indexes of the network channels known to this client, every lookup goes through it
+    private final NetworkChannelRegistry networkChannelRegistry = new NetworkChannelRegistry();
 
     /**
      * Send a packet to all authorized network channels except those that match the given predicate.
@@ -59,12 +60,7 @@ public class ClientChannelTransmitter implements ChannelTransmitter {
             @NonNull Object packet,
             @Nullable Predicate<NetworkChannel> ifNot
     ) {
-        networkChannels.forEach((uuid, networkChannel) -> {
-            if (ifNot != null && ifNot.test(networkChannel) || networkChannel.inactive()) {
-                return;
-            }
-            networkChannel.sendPacket(packet);
-        });
+        NetworkChannel.sendPacketToAll(packet, this.networkChannelRegistry.values(), ifNot);
     }
 
     /**
@@ -74,7 +70,7 @@ public class ClientChannelTransmitter implements ChannelTransmitter {
      */
     @Override
     public Collection<NetworkChannel> getNetworkChannels() {
-        return networkChannels.values().stream().toList();
+        return this.networkChannelRegistry.values();
     }
 
     /**
@@ -87,12 +83,8 @@ public class ClientChannelTransmitter implements ChannelTransmitter {
     public NetworkChannel getNetworkChannel(
             @NonNull Channel channel
     ) {
-        for (var value : networkChannels.values()) {
-            if (value.channel().remoteAddress().equals(channel.remoteAddress()) && !value.inactive()) {
-                return value;
-            }
-        }
-        return null;
+        // All network channels share the connection to the server, it belongs to the one registered first
+        return this.networkChannelRegistry.get(channel);
     }
 
     /**
@@ -105,12 +97,7 @@ public class ClientChannelTransmitter implements ChannelTransmitter {
     public NetworkChannel getNetworkChannel(
             @NonNull String namespace
     ) {
-        for (var value : networkChannels.values()) {
-            if (value.channelIdentity().namespace().equalsIgnoreCase(namespace) && !value.inactive()) {
-                return value;
-            }
-        }
-        return null;
+        return this.networkChannelRegistry.get(namespace);
     }
 
     /**
@@ -123,12 +110,7 @@ public class ClientChannelTransmitter implements ChannelTransmitter {
     public NetworkChannel getNetworkChannel(
             @NonNull UUID uniqueId
     ) {
-        for (var value : networkChannels.values()) {
-            if (value.channelIdentity().uniqueId().equals(uniqueId) && !value.inactive()) {
-                return value;
-            }
-        }
-        return null;
+        return this.networkChannelRegistry.get(uniqueId);
     }
 
     /**
@@ -141,15 +123,9 @@ public class ClientChannelTransmitter implements ChannelTransmitter {
     public NetworkChannel getNetworkChannel(
             @NonNull ChannelIdentity channelIdentity
     ) {
-        // Iterate through each authorized entry
-        for (var value : networkChannels.values()) {
-            // Check if the channelIdentity matches
-            if (value.channelIdentity().equals(channelIdentity) && !value.inactive()) {
-                // Return the associated network channel
-                return value;
-            }
-        }
-        return null; // Network channel not found
+        // Look up the network channel by unique ID, the namespace has to match as well
+        var networkChannel = this.networkChannelRegistry.get(channelIdentity.uniqueId());
+        return networkChannel != null && networkChannel.channelIdentity().equals(channelIdentity) ? networkChannel : null;
     }
 
     /**
@@ -164,13 +140,40 @@ public class ClientChannelTransmitter implements ChannelTransmitter {
             @NonNull ChannelHandlerContext channelHandlerContext
     ) {
         if (packetObj instanceof Packet packet) {
-            var networkChannel = this.getNetworkChannel(channelHandlerContext.channel());
-            this.networkClient.routingPacketManager.dispatch(packet);
-            this.networkClient.queryPacketManager.dispatch(packet);
+            // Cancellations and packets of query streams are consumed by the query packet manager
+            if (this.networkClient.queryPacketManager.dispatchControl(packet, channelHandlerContext.channel())) {
+                return;
+            }
+            // The network channel is attached to the channel once it is created, there is nothing to look up
+            var networkChannel = NetworkChannel.of(channelHandlerContext.channel());
+            this.networkClient.routingPacketManager.dispatch(packet, channelHandlerContext.channel());
+            this.networkClient.queryPacketManager.dispatch(packet, channelHandlerContext.channel());
             this.networkClient.packetReceiverManager.dispatch(packet, networkChannel, channelHandlerContext);
         }
     }
 
+    /**
+     * Retrieves the query packet manager of the network client.
+     *
+     * @return The query packet manager.
+     */
+    @Override
+    public QueryPacketManager queryPacketManager() {
+        return this.networkClient.queryPacketManager;
+    }
+
+    /**
+     * Signals that the current read cycle of a channel is complete, so packets collected for batch handlers are passed on.
+     *
+     * @param channelHandlerContext The channel handler context whose read cycle completed.
+     */
+    @Override
+    public void dispatchReadComplete(
+            @NonNull ChannelHandlerContext channelHandlerContext
+    ) {
+        this.networkClient.packetReceiverManager.flushBatches(channelHandlerContext);
+    }
+
     /**
      * Creates a new network channel and adds it to the network channel map.
      *
@@ -182,7 +185,7 @@ public class ClientChannelTransmitter implements ChannelTransmitter {
             @NonNull ChannelHandlerContext channelHandlerContext
     ) {
         // Creates a new network channel with the specified parameters
-        networkChannels.put(channelIdentity.uniqueId(), new NetworkChannel(
+        networkChannelRegistry.register(new NetworkChannel(
                 channelIdentity,
                 networkClient.queryPacketManager,
                 networkClient.routingPacketManager,
@@ -211,7 +214,7 @@ public class ClientChannelTransmitter implements ChannelTransmitter {
             return;
         }
         // Removes the network channel from the network channel map
-        networkChannels.remove(networkChannel.channelIdentity().uniqueId());
+        networkChannelRegistry.unregister(networkChannel.channelIdentity().uniqueId());
         // Logs the removal of the network channel
         NettyLib.log(Level.INFO, "Removed NetworkChannel for: {0} / {1}", channelHandlerContext.channel().remoteAddress(), networkChannel.channelIdentity().toString());
     }
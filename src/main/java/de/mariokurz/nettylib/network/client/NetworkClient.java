@@ -37,13 +37,15 @@ import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelStayActive
 import de.mariokurz.nettylib.network.protocol.query.QueryPacketManager;
 import de.mariokurz.nettylib.network.protocol.receiver.PacketReceiverManager;
 import de.mariokurz.nettylib.network.protocol.register.PacketRegistry;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingGroupPacket;
 import de.mariokurz.nettylib.network.protocol.routing.RoutingPacketManager;
+import de.mariokurz.nettylib.network.protocol.topic.TopicSubscriptionPacket;
 import de.mariokurz.nettylib.utils.NettyUtils;
+import de.mariokurz.nettylib.utils.SharedEventLoopGroup;
 import io.netty5.bootstrap.Bootstrap;
 import io.netty5.channel.Channel;
 import io.netty5.channel.ChannelOption;
 import io.netty5.channel.EventLoopGroup;
-import io.netty5.channel.MultithreadEventLoopGroup;
 import io.netty5.handler.ssl.SslContext;
 import io.netty5.handler.ssl.SslContextBuilder;
 import io.netty5.handler.ssl.util.InsecureTrustManagerFactory;
@@ -51,13 +53,24 @@ import lombok.Getter;
 import lombok.NonNull;
 
 import javax.net.ssl.SSLException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 @Getter
 public class NetworkClient implements AutoCloseable{
 
-    protected final EventLoopGroup eventLoopGroup = new MultithreadEventLoopGroup(2, NettyUtils.createIoHandlerFactory());
+    // Shared with other clients, it is released exactly once when this client is closed
+    protected final SharedEventLoopGroup sharedEventLoopGroup;
+    protected final EventLoopGroup eventLoopGroup;
+    protected final AtomicBoolean closed = new AtomicBoolean();
+    // The server forgets the memberships of a lost connection, they are joined again on every connect
+    protected final Set<String> routingGroups = ConcurrentHashMap.newKeySet();
+    // Subscriptions are dropped with the connection as well, they are sent again on every connect
+    protected final Set<String> topics = ConcurrentHashMap.newKeySet();
     protected final QueryPacketManager queryPacketManager = new QueryPacketManager();
     protected final RoutingPacketManager routingPacketManager = new RoutingPacketManager();
     protected final PacketReceiverManager packetReceiverManager = new PacketReceiverManager();
@@ -77,6 +90,18 @@ public class NetworkClient implements AutoCloseable{
             @NonNull Codec codec,
             boolean ssl
     ) {
+        this(channelIdentity, inactiveAction, codec, ssl, SharedEventLoopGroup.defaultClientGroup());
+    }
+
+    public NetworkClient(
+            @NonNull ChannelIdentity channelIdentity,
+            @NonNull InactiveAction inactiveAction,
+            @NonNull Codec codec,
+            boolean ssl,
+            @NonNull SharedEventLoopGroup sharedEventLoopGroup
+    ) {
+        this.sharedEventLoopGroup = sharedEventLoopGroup;
+        this.eventLoopGroup = sharedEventLoopGroup.retain();
         this.codec = codec;
         this.clientChannelTransmitter = new ClientChannelTransmitter(this);
         this.channelIdentity = channelIdentity;
@@ -96,6 +121,60 @@ public class NetworkClient implements AutoCloseable{
         return this.clientChannelTransmitter.getNetworkChannel(this.channelIdentity.uniqueId());
     }
 
+    /**
+     * Joins a routing group on the server, multicasts addressed to the group reach this client from then on.
+     * The group is joined again whenever the client reconnects.
+     *
+     * @param group The name of the routing group, matched ignoring case.
+     */
+    public void joinRoutingGroup(@NonNull String group) {
+        this.routingGroups.add(group.toLowerCase(Locale.ROOT));
+        var networkChannel = this.thisNetworkChannel();
+        if (networkChannel != null) {
+            networkChannel.sendPacket(new RoutingGroupPacket(group, true));
+        }
+    }
+
+    /**
+     * Leaves a routing group on the server.
+     *
+     * @param group The name of the routing group, matched ignoring case.
+     */
+    public void leaveRoutingGroup(@NonNull String group) {
+        this.routingGroups.remove(group.toLowerCase(Locale.ROOT));
+        var networkChannel = this.thisNetworkChannel();
+        if (networkChannel != null) {
+            networkChannel.sendPacket(new RoutingGroupPacket(group, false));
+        }
+    }
+
+    /**
+     * Subscribes to a topic on the server, packets the server publishes to the topic reach this client from then on.
+     * The subscription is sent again whenever the client reconnects.
+     *
+     * @param topic The name of the topic, matched ignoring case.
+     */
+    public void subscribeTopic(@NonNull String topic) {
+        this.topics.add(topic.toLowerCase(Locale.ROOT));
+        var networkChannel = this.thisNetworkChannel();
+        if (networkChannel != null) {
+            networkChannel.sendPacket(new TopicSubscriptionPacket(topic, true));
+        }
+    }
+
+    /**
+     * Unsubscribes from a topic on the server.
+     *
+     * @param topic The name of the topic, matched ignoring case.
+     */
+    public void unsubscribeTopic(@NonNull String topic) {
+        this.topics.remove(topic.toLowerCase(Locale.ROOT));
+        var networkChannel = this.thisNetworkChannel();
+        if (networkChannel != null) {
+            networkChannel.sendPacket(new TopicSubscriptionPacket(topic, false));
+        }
+    }
+
     public void connect(
             @NonNull String hostName,
             int port
@@ -156,7 +235,16 @@ public class NetworkClient implements AutoCloseable{
 
     @Override
     public void close() throws Exception {
-        this.eventLoopGroup.shutdownGracefully();
+        // The shutdown hook closes the client again, the group must not be released twice
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+        // The group may outlive this client, so its connection is closed explicitly
+        var networkChannel = this.thisNetworkChannel();
+        if (networkChannel != null) {
+            networkChannel.channel().close();
+        }
+        this.sharedEventLoopGroup.release();
     }
 
     @Getter
@@ -25,6 +25,7 @@ package de.mariokurz.nettylib.network.client;
  */
 
 import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.network.protocol.routing.RoutedPacketEncoder;
 import io.netty5.channel.Channel;
 import io.netty5.channel.ChannelInitializer;
 import lombok.AllArgsConstructor;
@@ -44,6 +45,10 @@ public class NetworkClientChannelInitializer extends ChannelInitializer<Channel>
         }
 
         NettyLib.initChannelPipeline(channel, networkClient.codec, networkClient.packetRegistry);
+        if (NettyLib.framed(networkClient.codec)) {
+            // Fire-and-forget routings are forwarded by the server without decoding them
+            channel.pipeline().addLast(new RoutedPacketEncoder());
+        }
         channel.pipeline().addLast(new NetworkClientHandler(networkClient, host, port));
 
     }
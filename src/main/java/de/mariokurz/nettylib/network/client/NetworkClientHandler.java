@@ -27,11 +27,14 @@ package de.mariokurz.nettylib.network.client;
 import de.golgolex.quala.ConsoleColor;
 import de.golgolex.quala.Quala;
 import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.network.channel.PendingRequests;
 import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelAuthenticatedPacket;
 import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelAuthorizePacket;
 import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelInactivePacket;
 import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelInitPacket;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingGroupPacket;
 import de.mariokurz.nettylib.network.protocol.routing.RoutingResultPacket;
+import de.mariokurz.nettylib.network.protocol.topic.TopicSubscriptionPacket;
 import io.netty5.channel.ChannelHandlerContext;
 import io.netty5.channel.SimpleChannelInboundHandler;
 import lombok.AllArgsConstructor;
@@ -67,21 +70,50 @@ public class NetworkClientHandler extends SimpleChannelInboundHandler<Object> {
         }
 
         if (o instanceof RoutingResultPacket routingResultPacket) {
-            networkClient.routingPacketManager.dispatch(routingResultPacket);
+            networkClient.routingPacketManager.dispatch(routingResultPacket, channelHandlerContext.channel());
             return;
         }
 
         networkClient.clientChannelTransmitter.dispatchPacketObject(o, channelHandlerContext);
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        networkClient.clientChannelTransmitter.dispatchReadComplete(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         networkClient.clientChannelTransmitter.createNetworkChannel(networkClient.channelIdentity, ctx);
         networkClient.thisNetworkChannel().sendPacket(new NetworkChannelAuthorizePacket(this.networkClient.channelIdentity));
+        // Tell the server which packet types this client handles, broadcasts of every other type skip it
+        networkClient.packetReceiverManager.advertiseInterests(packetInterestPacket -> {
+            var networkChannel = networkClient.thisNetworkChannel();
+            if (networkChannel != null) {
+                networkChannel.sendPacket(packetInterestPacket);
+            }
+        });
+        // The server dropped the memberships and subscriptions of the previous connection
+        for (var group : networkClient.routingGroups) {
+            networkClient.thisNetworkChannel().sendPacket(new RoutingGroupPacket(group, true));
+        }
+        for (var topic : networkClient.topics) {
+            networkClient.thisNetworkChannel().sendPacket(new TopicSubscriptionPacket(topic, true));
+        }
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // Nobody is left to answer, fail the pending requests instead of letting them time out
+        var failed = PendingRequests.of(ctx.channel()).failAll();
+        if (failed > 0) {
+            NettyLib.debug(Level.INFO, this.getClass(), "Failed " + failed + " pending requests of " + ctx.channel().remoteAddress());
+        }
+        // A closed client neither shuts down the process nor reconnects
+        if (networkClient.closed().get()) {
+            return;
+        }
         if ((!ctx.channel().isActive() || !ctx.channel().isOpen() || !ctx.channel().isWritable())) {
             ctx.channel().close();
             switch (networkClient.inactiveAction()) {
@@ -91,8 +123,15 @@ public class NetworkClientHandler extends SimpleChannelInboundHandler<Object> {
                 }
                 case RETRY -> {
                     NettyLib.log(Level.INFO, ConsoleColor.RED.ansiCode() + "Connection to {0}:{1} lost. The connection will be tried again in 3 seconds.", host, port);
-                    Quala.sleepUninterruptedly(3000);
-                    networkClient.connect(host, port);
+                    // Waiting on the event loop would stall every other client sharing it
+                    new Thread(() -> {
+                        Quala.sleepUninterruptedly(3000);
+                        // The client may have been closed while waiting, its group might be gone already
+                        if (networkClient.closed().get()) {
+                            return;
+                        }
+                        networkClient.connect(host, port);
+                    }, "nettylib-reconnect").start();
                 }
             }
         }
@@ -28,14 +28,69 @@ import de.mariokurz.nettylib.network.protocol.codec.osgan.annotation.PacketObjec
 import lombok.Getter;
 import lombok.Setter;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.UUID;
 
 @Getter
 @Setter
 @PacketObjectSerial
 public class Packet implements Serializable {
 
-    private UUID queryId = null;
+    public static final long NO_QUERY_ID = 0;
+    public static final long NO_DEADLINE = 0;
+
+    private long queryId = NO_QUERY_ID;
+    // Epoch millis after which nobody waits for the answer anymore, on the wire it is sent as the remaining time
+    private transient long deadline = NO_DEADLINE;
+
+    /**
+     * Checks whether the deadline of this packet has passed.
+     *
+     * @return True if the packet has a deadline which has passed.
+     */
+    public boolean deadlineExpired() {
+        return this.deadline != NO_DEADLINE && System.currentTimeMillis() > this.deadline;
+    }
+
+    /**
+     * Retrieves the time remaining until the deadline, which is what goes over the wire,
+     * so the deadline does not depend on the clocks of both peers being in sync.
+     *
+     * @return The remaining millis, negative if the deadline has passed, or {@link #NO_DEADLINE}.
+     */
+    public long deadlineBudget() {
+        if (this.deadline == NO_DEADLINE) {
+            return NO_DEADLINE;
+        }
+        var budget = this.deadline - System.currentTimeMillis();
+        // A budget of zero would read as no deadline
+        return budget == NO_DEADLINE ? -1 : budget;
+    }
+
+    /**
+     * Sets the deadline from the time remaining until it, as read from the wire.
+     *
+     * @param budget The remaining millis, or {@link #NO_DEADLINE}.
+     */
+    public void deadlineBudget(long budget) {
+        this.deadline = budget == NO_DEADLINE ? NO_DEADLINE : System.currentTimeMillis() + budget;
+    }
+
+    private void writeObject(ObjectOutputStream outputStream) throws IOException {
+        outputStream.defaultWriteObject();
+        // Only a query is waited for, so plain packets don't carry a deadline
+        if (this.queryId != NO_QUERY_ID) {
+            outputStream.writeLong(this.deadlineBudget());
+        }
+    }
+
+    private void readObject(ObjectInputStream inputStream) throws IOException, ClassNotFoundException {
+        inputStream.defaultReadObject();
+        if (this.queryId != NO_QUERY_ID) {
+            this.deadlineBudget(inputStream.readLong());
+        }
+    }
 
 }
@@ -0,0 +1,90 @@
+package de.mariokurz.nettylib.network.protocol;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 21:06 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import lombok.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The types a packet is received as: its class, its superclasses and every interface it implements.
+ * Dispatch and the packet interests of clients both resolve receivers through these types.
+ */
+public final class PacketTypes {
+
+    private static final ClassValue<List<Class<?>>> HIERARCHIES = new ClassValue<>() {
+        @Override
+        protected List<Class<?>> computeValue(Class<?> type) {
+            Set<Class<?>> types = new LinkedHashSet<>();
+            Deque<Class<?>> interfaces = new ArrayDeque<>();
+            // Walk up the superclass chain first, so the most specific types come first
+            for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+                types.add(current);
+                interfaces.addAll(Arrays.asList(current.getInterfaces()));
+            }
+            // Then visit every implemented interface, including inherited ones
+            while (!interfaces.isEmpty()) {
+                var current = interfaces.poll();
+                if (types.add(current)) {
+                    interfaces.addAll(Arrays.asList(current.getInterfaces()));
+                }
+            }
+            return List.copyOf(types);
+        }
+    };
+
+    private PacketTypes() {
+    }
+
+    /**
+     * Retrieves the types a class is received as, the most specific one first.
+     *
+     * @param type The concrete packet class.
+     * @return The class, its superclasses up to but excluding Object, and all of their interfaces.
+     */
+    public static List<Class<?>> hierarchy(
+            @NonNull Class<?> type
+    ) {
+        return HIERARCHIES.get(type);
+    }
+
+    /**
+     * Checks whether receivers can be registered for a type, which are packet classes and interfaces
+     * packets may implement, e.g. marker interfaces.
+     *
+     * @param type The type to register receivers for.
+     * @return True if packets can be received as the type.
+     */
+    public static boolean receivable(
+            @NonNull Class<?> type
+    ) {
+        return Packet.class.isAssignableFrom(type) || type.isInterface();
+    }
+}
@@ -17,6 +17,7 @@ public abstract class AbstractMessageCodec extends ByteToMessageCodec<Packet> {
         this.decode(ctx, new PacketBuffer(buffer));
     }
 
+    // Only called outside the event loop of the channel by EncodedPacket if the codec is a StatelessEncoder
     public abstract void encode(ChannelHandlerContext ctx, Packet msg, PacketBuffer buffer) throws Exception;
 
     public abstract void decode(ChannelHandlerContext ctx, PacketBuffer buffer) throws Exception;
@@ -0,0 +1,164 @@
+package de.mariokurz.nettylib.network.protocol.codec;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 19:31 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.codec.dynamic.DynamicMessageCodec;
+import de.mariokurz.nettylib.network.protocol.codec.nettyextras.serialization.ObjectEncoder;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.Channel;
+import io.netty5.channel.ChannelHandler;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.Serializable;
+import java.util.logging.Level;
+
+/**
+ * A packet which is encoded once and then written to any number of channels using the same codec,
+ * instead of being encoded again for every channel. The encoded bytes are read-only and shared by
+ * all writes, every write only gets its own offsets.
+ */
+public class EncodedPacket implements AutoCloseable {
+
+    @Getter
+    private final Object packet;
+    private final Buffer buffer;
+
+    private EncodedPacket(
+            @NonNull Object packet,
+            @NonNull Buffer buffer
+    ) {
+        this.packet = packet;
+        this.buffer = buffer.makeReadOnly();
+    }
+
+    /**
+     * Encodes a packet with the codec of a channel.
+     *
+     * @param packet  The packet to encode.
+     * @param channel The channel whose codec is used, the encoded packet may be written to every channel with the same codec.
+     * @return The encoded packet, or null if the channel has no codec which can encode it.
+     */
+    public static EncodedPacket encode(
+            @NonNull Object packet,
+            @NonNull Channel channel
+    ) {
+        var buffer = encodeBuffer(packet, channel);
+        return buffer == null ? null : new EncodedPacket(packet, buffer);
+    }
+
+    /**
+     * Encodes a packet with the codec of a channel into a new buffer.
+     * <p>
+     * The codec runs on the calling thread, which is often not the event loop of the channel, with the context
+     * the codec has in the pipeline of the channel. So only a {@link StatelessEncoder} is used, any other codec
+     * encodes the packet in its own pipeline once it is written.
+     *
+     * @param packet  The packet to encode.
+     * @param channel The channel whose codec is used.
+     * @return The buffer containing the encoded packet, or null if the channel has no stateless codec which can encode it.
+     */
+    public static Buffer encodeBuffer(
+            @NonNull Object packet,
+            @NonNull Channel channel
+    ) {
+        var codec = codec(packet, channel);
+        if (!(codec instanceof StatelessEncoder)) {
+            NettyLib.debug(Level.INFO, EncodedPacket.class, "No stateless codec to encode: " + packet.getClass().getName());
+            return null;
+        }
+        var ctx = channel.pipeline().context(codec);
+        var buffer = channel.bufferAllocator().allocate(256);
+        try {
+            if (codec instanceof DynamicMessageCodec dynamicMessageCodec) {
+                dynamicMessageCodec.actionEncode(ctx, packet, buffer);
+            } else if (codec instanceof AbstractMessageCodec messageCodec) {
+                messageCodec.encode(ctx, (Packet) packet, new PacketBuffer(buffer));
+            } else {
+                ((ObjectEncoder) codec).actionEncode(ctx, (Serializable) packet, buffer);
+            }
+            return buffer;
+        } catch (Exception exception) {
+            NettyLib.log(Level.SEVERE, EncodedPacket.class, "Failed to encode " + packet.getClass().getName() + ": " + exception);
+        }
+        buffer.close();
+        return null;
+    }
+
+    /**
+     * Retrieves how a channel encodes a packet up front, channels with equal encodings can share the encoded bytes.
+     *
+     * @param packet  The packet to encode.
+     * @param channel The channel whose codec is used.
+     * @return The encoding of the codec, or null if the channel has no stateless codec which can encode the packet.
+     */
+    public static Object encoding(
+            @NonNull Object packet,
+            @NonNull Channel channel
+    ) {
+        return codec(packet, channel) instanceof StatelessEncoder statelessEncoder ? statelessEncoder.encoding() : null;
+    }
+
+    /**
+     * Finds the codec in the pipeline of a channel which encodes a packet.
+     *
+     * @param packet  The packet to encode.
+     * @param channel The channel whose pipeline is searched.
+     * @return The codec, or null if the pipeline has none for the packet.
+     */
+    private static ChannelHandler codec(
+            @NonNull Object packet,
+            @NonNull Channel channel
+    ) {
+        for (var entry : channel.pipeline()) {
+            var handler = entry.getValue();
+            if (handler instanceof DynamicMessageCodec
+                    || handler instanceof AbstractMessageCodec && packet instanceof Packet
+                    || handler instanceof ObjectEncoder && packet instanceof Serializable) {
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates a buffer for a single write, it shares the encoded bytes.
+     *
+     * @return A read-only buffer which is released once it was written.
+     */
+    public Buffer newBuffer() {
+        return this.buffer.copy(this.buffer.readerOffset(), this.buffer.readableBytes(), true);
+    }
+
+    /**
+     * Releases the encoded bytes, buffers created before stay valid until they are written.
+     */
+    @Override
+    public void close() {
+        this.buffer.close();
+    }
+}
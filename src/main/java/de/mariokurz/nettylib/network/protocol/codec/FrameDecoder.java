@@ -0,0 +1,110 @@
+package de.mariokurz.nettylib.network.protocol.codec;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 16:01 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.routing.RoutedFrameForwarder;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingTarget;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerAdapter;
+import io.netty5.channel.ChannelHandlerContext;
+import lombok.RequiredArgsConstructor;
+
+import javax.annotation.Nullable;
+import java.util.logging.Level;
+
+/**
+ * Reads the frame type written by the {@link FrameEncoder}, after the length was stripped.
+ * Routed frames are handed to the forwarder without being decoded, every other frame is passed on to the codec.
+ * Packets decoded from forwarded frames lose their query ID in the {@link #forwardedPacketHandler()} behind the codec.
+ */
+@RequiredArgsConstructor
+public class FrameDecoder extends ChannelHandlerAdapter {
+
+    // Only the server forwards routed frames
+    @Nullable
+    private final RoutedFrameForwarder routedFrameForwarder;
+    // Set while a forwarded frame passes through the codec, which decodes it within the same call
+    private boolean forwarded;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof Buffer frame) || frame.readableBytes() == 0) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        var frameType = frame.readByte();
+        if (frameType == FrameEncoder.FRAME_FORWARDED) {
+            this.forwarded = true;
+            try {
+                ctx.fireChannelRead(frame);
+            } finally {
+                this.forwarded = false;
+            }
+            return;
+        }
+        if (frameType == FrameEncoder.FRAME_ROUTED) {
+            var target = RoutingTarget.read(frame);
+            // The query ID and the count of type IDs follow the target, then the type IDs themselves
+            if (target == null || frame.readableBytes() < 9
+                    || frame.readableBytes() < 9 + frame.getUnsignedByte(frame.readerOffset() + 8) * 4) {
+                NettyLib.log(Level.SEVERE, this.getClass(), "Dropping malformed routed frame from " + ctx.channel().remoteAddress());
+                frame.close();
+                return;
+            }
+            var queryId = frame.readLong();
+            var packetTypes = new int[frame.readUnsignedByte()];
+            for (var i = 0; i < packetTypes.length; i++) {
+                packetTypes[i] = frame.readInt();
+            }
+            if (this.routedFrameForwarder != null) {
+                this.routedFrameForwarder.forwardRoutedFrame(ctx.channel(), target, queryId, packetTypes, frame);
+                return;
+            }
+            NettyLib.debug(Level.INFO, this.getClass(), "Reading routed frame for " + target + " as packet");
+        }
+        ctx.fireChannelRead(frame);
+    }
+
+    /**
+     * Creates the handler which follows the codec and clears the query ID of packets decoded from forwarded frames.
+     * The ID was given out on the connection of the sender, on this connection it could match one of our own requests.
+     *
+     * @return The handler to add behind the codec.
+     */
+    public ChannelHandler forwardedPacketHandler() {
+        return new ChannelHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                if (forwarded && msg instanceof Packet packet) {
+                    packet.queryId(Packet.NO_QUERY_ID);
+                }
+                ctx.fireChannelRead(msg);
+            }
+        };
+    }
+}
@@ -0,0 +1,85 @@
+package de.mariokurz.nettylib.network.protocol.codec;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 19:44 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.protocol.routing.ForwardedFrame;
+import de.mariokurz.nettylib.network.protocol.routing.RoutedFrame;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandlerAdapter;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.util.concurrent.Future;
+
+/**
+ * Prefixes every encoded packet with its length and its frame type. The header is written
+ * as its own buffer in front of the encoded packet, so the packet is never copied.
+ * Routed frames additionally carry their receivers and the ID of their delivery result in the header,
+ * forwarded frames only mark the packet as forwarded by the server.
+ */
+public class FrameEncoder extends ChannelHandlerAdapter {
+
+    // The frame contains a packet for the reading side
+    public static final byte FRAME_PACKET = 0;
+    // The frame contains a packet the server forwards to the receivers in the header
+    public static final byte FRAME_ROUTED = 1;
+    // The frame contains a packet the server forwarded from a routed frame, its query ID is not ours
+    public static final byte FRAME_FORWARDED = 2;
+    // The most type IDs a routed frame carries, the count is written as unsigned byte
+    public static final int MAX_PACKET_TYPES = 255;
+
+    @Override
+    public Future<Void> write(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof Buffer body) {
+            var header = ctx.bufferAllocator().allocate(5)
+                    .writeInt(body.readableBytes() + 1)
+                    .writeByte(FRAME_PACKET);
+            ctx.write(header);
+            return ctx.write(body);
+        }
+        if (msg instanceof ForwardedFrame forwardedFrame) {
+            var header = ctx.bufferAllocator().allocate(5)
+                    .writeInt(forwardedFrame.body().readableBytes() + 1)
+                    .writeByte(FRAME_FORWARDED);
+            ctx.write(header);
+            return ctx.write(forwardedFrame.body());
+        }
+        if (msg instanceof RoutedFrame routedFrame) {
+            // Deep packet hierarchies only carry their most specific types, the rest is never filtered on
+            var packetTypes = Math.min(routedFrame.packetTypes().length, MAX_PACKET_TYPES);
+            var headerLength = 1 + routedFrame.target().encodedLength() + 8 + 1 + packetTypes * 4;
+            var header = ctx.bufferAllocator().allocate(4 + headerLength)
+                    .writeInt(routedFrame.body().readableBytes() + headerLength)
+                    .writeByte(FRAME_ROUTED);
+            routedFrame.target().write(header);
+            header.writeLong(routedFrame.queryId());
+            header.writeByte((byte) packetTypes);
+            for (var i = 0; i < packetTypes; i++) {
+                header.writeInt(routedFrame.packetTypes()[i]);
+            }
+            ctx.write(header);
+            return ctx.write(routedFrame.body());
+        }
+        return ctx.write(msg);
+    }
+}
@@ -0,0 +1,42 @@
+package de.mariokurz.nettylib.network.protocol.codec;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 19:54 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * A codec which may encode packets outside the event loop of its channel, so {@link EncodedPacket} can encode a packet
+ * once and write the bytes to many channels. It keeps no state between two packets and neither writes to nor reads
+ * from its context while encoding. Codecs which don't implement it always encode in their own pipeline.
+ */
+public interface StatelessEncoder {
+
+    /**
+     * Identifies how this codec encodes packets, codecs with equal encodings produce the same bytes for a packet.
+     *
+     * @return The encoding, by default the class of the codec.
+     */
+    default Object encoding() {
+        return this.getClass();
+    }
+}
@@ -28,6 +28,7 @@ import de.mariokurz.nettylib.Codec;
 import de.mariokurz.nettylib.NettyLib;
 import de.mariokurz.nettylib.network.protocol.Packet;
 import de.mariokurz.nettylib.network.protocol.codec.PacketBuffer;
+import de.mariokurz.nettylib.network.protocol.codec.StatelessEncoder;
 import de.mariokurz.nettylib.network.protocol.codec.nettyextras.serialization.ClassResolvers;
 import de.mariokurz.nettylib.network.protocol.codec.nettyextras.serialization.ObjectDecoder;
 import de.mariokurz.nettylib.network.protocol.codec.nettyextras.serialization.ObjectEncoder;
@@ -35,6 +36,8 @@ import de.mariokurz.nettylib.network.protocol.codec.osgan.OsganMessageCodec;
 import de.mariokurz.nettylib.network.protocol.codec.selfbuild.SelfBuild;
 import de.mariokurz.nettylib.network.protocol.codec.selfbuild.SelfBuildMessageCodec;
 import de.mariokurz.nettylib.network.protocol.register.PacketRegistry;
+import de.mariokurz.nettylib.network.protocol.routing.ForwardedFrame;
+import de.mariokurz.nettylib.network.protocol.routing.RoutedFrame;
 import io.netty5.buffer.Buffer;
 import io.netty5.channel.ChannelHandlerContext;
 import io.netty5.handler.codec.ByteToMessageCodec;
@@ -42,7 +45,7 @@ import io.netty5.handler.codec.ByteToMessageCodec;
 import java.io.Serializable;
 import java.util.logging.Level;
 
-public class DynamicMessageCodec extends ByteToMessageCodec<Object> {
+public class DynamicMessageCodec extends ByteToMessageCodec<Object> implements StatelessEncoder {
 
     private final Codec codec;
     private final SelfBuildMessageCodec selfBuildMessageCodec;
@@ -58,6 +61,22 @@ public class DynamicMessageCodec extends ByteToMessageCodec<Object> {
         this.objectEncoder = new ObjectEncoder();
     }
 
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        // Buffers, routed and forwarded frames were encoded up front, e.g. once for many channels, they are passed on as they are
+        return !(msg instanceof Buffer) && !(msg instanceof RoutedFrame) && !(msg instanceof ForwardedFrame) && super.acceptOutboundMessage(msg);
+    }
+
+    @Override
+    public Object encoding() {
+        // Packets which are no SelfBuild are encoded depending on the codec
+        return this.codec;
+    }
+
+    public void actionEncode(ChannelHandlerContext ctx, Object o, Buffer out) throws Exception {
+        encode(ctx, o, out);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Object o, Buffer out) throws Exception {
         try {
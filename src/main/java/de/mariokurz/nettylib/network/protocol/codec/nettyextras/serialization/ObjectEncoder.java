@@ -15,6 +15,7 @@
  */
 package de.mariokurz.nettylib.network.protocol.codec.nettyextras.serialization;
 
+import de.mariokurz.nettylib.network.protocol.codec.StatelessEncoder;
 import io.netty5.buffer.BufferOutputStream;
 import io.netty5.buffer.Buffer;
 import io.netty5.channel.ChannelHandlerContext;
@@ -32,7 +33,7 @@ import java.io.Serializable;
  * {@link ObjectDecoder} or {@link ObjectDecoderInputStream} to ensure the
  * interoperability with this encoder.
  */
-public class ObjectEncoder extends MessageToByteEncoder<Serializable> {
+public class ObjectEncoder extends MessageToByteEncoder<Serializable> implements StatelessEncoder {
     private static final byte[] LENGTH_PLACEHOLDER = new byte[4];
 
     @Override
@@ -1,12 +1,12 @@
 package de.mariokurz.nettylib.network.protocol.codec.osgan;
 
-import de.golgolex.quala.Quala;
 import de.golgolex.quala.json.JsonObjectSerializer;
 import de.golgolex.quala.json.JsonUtils;
 import de.golgolex.quala.json.document.JsonDocument;
 import de.golgolex.quala.reflections.Reflections;
 import de.mariokurz.nettylib.network.protocol.codec.AbstractMessageCodec;
 import de.mariokurz.nettylib.network.protocol.codec.PacketBuffer;
+import de.mariokurz.nettylib.network.protocol.codec.StatelessEncoder;
 import de.mariokurz.nettylib.network.protocol.codec.osgan.annotation.PacketIgnore;
 import de.mariokurz.nettylib.network.protocol.codec.osgan.annotation.PacketObjectSerial;
 import de.mariokurz.nettylib.network.protocol.Packet;
@@ -19,7 +19,7 @@ import java.lang.reflect.Field;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
 
-public class OsganMessageCodec extends AbstractMessageCodec {
+public class OsganMessageCodec extends AbstractMessageCodec implements StatelessEncoder {
 
     @Override
     public void encode(ChannelHandlerContext ctx, Packet msg, @NonNull PacketBuffer buffer) {
@@ -37,7 +37,11 @@ public class OsganMessageCodec extends AbstractMessageCodec {
         buffer.writeBoolean(isPacket);
         if (isPacket) {
             var casted = (Packet) packet;
-            buffer.writeUniqueId(casted.queryId() == null ? Quala.SYSTEM_UUID : casted.queryId());
+            buffer.writeLong(casted.queryId());
+            // Only a query is waited for, so plain packets don't carry a deadline
+            if (casted.queryId() != Packet.NO_QUERY_ID) {
+                buffer.writeLong(casted.deadlineBudget());
+            }
         }
 
         for (Field field : packet.getClass().getDeclaredFields()) {
@@ -146,8 +150,10 @@ public class OsganMessageCodec extends AbstractMessageCodec {
 
         if (isPacketClass) {
             if (packet instanceof Packet casted) {
-                var queryId = buffer.readUniqueId();
-                casted.queryId(queryId == Quala.SYSTEM_UUID ? null : queryId);
+                casted.queryId(buffer.readLong());
+                if (casted.queryId() != Packet.NO_QUERY_ID) {
+                    casted.deadlineBudget(buffer.readLong());
+                }
             }
         }
 
@@ -24,16 +24,16 @@ package de.mariokurz.nettylib.network.protocol.codec.selfbuild;
  * SOFTWARE.
  */
 
-import de.golgolex.quala.Quala;
 import de.mariokurz.nettylib.network.protocol.codec.AbstractMessageCodec;
 import de.mariokurz.nettylib.network.protocol.codec.PacketBuffer;
+import de.mariokurz.nettylib.network.protocol.codec.StatelessEncoder;
 import de.mariokurz.nettylib.network.protocol.Packet;
 import de.mariokurz.nettylib.network.protocol.register.PacketRegistry;
 import io.netty5.channel.ChannelHandlerContext;
 import lombok.AllArgsConstructor;
 
 @AllArgsConstructor
-public class SelfBuildMessageCodec extends AbstractMessageCodec {
+public class SelfBuildMessageCodec extends AbstractMessageCodec implements StatelessEncoder {
 
     private final PacketRegistry packetRegistry;
 
@@ -46,7 +46,11 @@ public class SelfBuildMessageCodec extends AbstractMessageCodec {
 
         try {
             buffer.writeInt(selfBuild.registerId())
-                    .writeUniqueId(msg.queryId() == null ? Quala.SYSTEM_UUID : msg.queryId());
+                    .writeLong(msg.queryId());
+            // Only a query is waited for, so plain packets don't carry a deadline
+            if (msg.queryId() != Packet.NO_QUERY_ID) {
+                buffer.writeLong(msg.deadlineBudget());
+            }
             selfBuild.writeBuffer(buffer);
         } catch (Exception exception) {
             exception.printStackTrace();
@@ -64,9 +68,9 @@ public class SelfBuildMessageCodec extends AbstractMessageCodec {
                 return;
             }
 
-            var queryId = buffer.readUniqueId();
-            if (!queryId.equals(Quala.SYSTEM_UUID)) {
-                packet.queryId(queryId);
+            packet.queryId(buffer.readLong());
+            if (packet.queryId() != Packet.NO_QUERY_ID) {
+                packet.deadlineBudget(buffer.readLong());
             }
 
             if (packet instanceof SelfBuild selfBuild) {
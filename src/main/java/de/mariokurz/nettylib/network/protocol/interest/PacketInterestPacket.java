@@ -0,0 +1,49 @@
+package de.mariokurz.nettylib.network.protocol.interest;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 16:57 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.codec.osgan.annotation.PacketObjectSerial;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Tells the server which packet types a client has receivers for, so broadcasts and multicasts skip the client
+ * for every other packet type. The client sends all of its packet types once it connected and the changes afterwards.
+ */
+@Getter
+@AllArgsConstructor
+@PacketObjectSerial
+public class PacketInterestPacket extends Packet implements Serializable {
+    // Class names of the packet types which gained their first receiver
+    private List<String> added;
+    // Class names of the packet types which lost their last receiver
+    private List<String> removed;
+    // Whether the added packet types replace all packet types the server knew of before
+    private boolean replace;
+}
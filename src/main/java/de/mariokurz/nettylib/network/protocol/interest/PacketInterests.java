@@ -0,0 +1,139 @@
+package de.mariokurz.nettylib.network.protocol.interest;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 19:43 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.PacketTypes;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The packet types the client of a network channel has receivers for, as advertised with {@link PacketInterestPacket}s.
+ * Packet types are compared by the hash of their class name, so the server does not need the packet classes
+ * and a routed frame carries them as plain numbers. A hash collision only lets a packet through the client drops anyway.
+ * As long as the client advertised nothing, it is interested in every packet.
+ */
+public class PacketInterests {
+
+    // A receiver registered for every packet
+    private static final int ANY_PACKET = typeId(Packet.class.getName());
+    private static final ClassValue<int[]> TYPE_IDS = new ClassValue<>() {
+        @Override
+        protected int[] computeValue(Class<?> type) {
+            // Receivers of a superclass or an interface are called for the packet as well, so every type it is received as counts
+            if (!Packet.class.isAssignableFrom(type)) {
+                return new int[0];
+            }
+            return PacketTypes.hierarchy(type).stream().mapToInt(current -> typeId(current.getName())).toArray();
+        }
+    };
+
+    // Null until the client advertised its packet types, replaced as a whole on every change
+    @Nullable
+    private volatile Set<Integer> typeIds;
+
+    /**
+     * Applies the packet types a client advertised.
+     *
+     * @param packetInterestPacket The advertised packet types.
+     */
+    public synchronized void update(
+            @NonNull PacketInterestPacket packetInterestPacket
+    ) {
+        var current = this.typeIds;
+        Set<Integer> next = current == null || packetInterestPacket.replace() ? new HashSet<>() : new HashSet<>(current);
+        if (packetInterestPacket.added() != null) {
+            for (var packetType : packetInterestPacket.added()) {
+                next.add(typeId(packetType));
+            }
+        }
+        if (packetInterestPacket.removed() != null) {
+            for (var packetType : packetInterestPacket.removed()) {
+                next.remove(typeId(packetType));
+            }
+        }
+        this.typeIds = Set.copyOf(next);
+    }
+
+    /**
+     * Checks whether the client has a receiver for a packet.
+     *
+     * @param packet The packet.
+     * @return True if the client is interested in the packet or the packet is no {@link Packet}.
+     */
+    public boolean matches(
+            @NonNull Object packet
+    ) {
+        return this.matches(typeIds(packet.getClass()));
+    }
+
+    /**
+     * Checks whether the client has a receiver for one of the given packet types.
+     *
+     * @param packetTypes The type IDs of a packet, see {@link #typeIds(Class)}.
+     * @return True if the client is interested in the packet, or if the packet types are unknown.
+     */
+    public boolean matches(
+            int @NonNull [] packetTypes
+    ) {
+        var current = this.typeIds;
+        if (current == null || packetTypes.length == 0 || current.contains(ANY_PACKET)) {
+            return true;
+        }
+        for (var packetType : packetTypes) {
+            if (current.contains(packetType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolves the type IDs of a packet class, one for every type it is received as, see {@link PacketTypes#hierarchy(Class)}.
+     *
+     * @param packetClass The packet class.
+     * @return The type IDs, empty if the class is no packet. The array is shared and must not be modified.
+     */
+    public static int[] typeIds(
+            @NonNull Class<?> packetClass
+    ) {
+        return TYPE_IDS.get(packetClass);
+    }
+
+    /**
+     * Resolves the type ID of a packet class.
+     *
+     * @param className The name of the packet class.
+     * @return The type ID.
+     */
+    public static int typeId(
+            @NonNull String className
+    ) {
+        return className.hashCode();
+    }
+}
@@ -0,0 +1,54 @@
+package de.mariokurz.nettylib.network.protocol.query;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 21:00 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Decides when a scatter-gather query has gathered enough responses.
+ * Every mode is bounded by the timeout of the query, it then completes with the responses gathered so far.
+ */
+public enum GatherMode {
+    // Wait for the response of every channel
+    ALL,
+    // Wait for the first responses, one unless another count is given
+    FIRST,
+    // Wait for a majority of the channels, unless another count is given
+    QUORUM,
+    // Gather responses until the timeout, or until every channel answered
+    TIMEOUT;
+
+    /**
+     * Resolves the number of responses this mode waits for by default.
+     *
+     * @param channels The number of channels the query was sent to.
+     * @return The number of responses which satisfy this mode.
+     */
+    public int defaultCount(int channels) {
+        return switch (this) {
+            case ALL, TIMEOUT -> channels;
+            case FIRST -> Math.min(1, channels);
+            case QUORUM -> channels / 2 + 1;
+        };
+    }
+}
@@ -24,39 +24,77 @@ package de.mariokurz.nettylib.network.protocol.query;
  * SOFTWARE.
  */
 
-import de.golgolex.quala.scheduler.Scheduler;
-import de.golgolex.quala.utils.data.Value;
 import de.mariokurz.nettylib.NettyLib;
 import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.channel.PendingRequests;
 import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.query.stream.QueryStream;
+import de.mariokurz.nettylib.network.protocol.query.stream.QueryStreamDemandPacket;
+import de.mariokurz.nettylib.network.protocol.query.stream.QueryStreamEndPacket;
+import de.mariokurz.nettylib.network.protocol.query.stream.QueryStreamException;
+import de.mariokurz.nettylib.network.protocol.query.stream.QueryStreamResponder;
+import de.mariokurz.nettylib.utils.NettyUtils;
+import io.netty5.channel.Channel;
 import lombok.Getter;
 import lombok.NonNull;
 
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 @Getter
 public class QueryPacketManager {
 
-    private static final Map<UUID, Value<QueryResult>> waitingHandlers = new ConcurrentHashMap<>(0);
-    private final Scheduler executorService = new Scheduler(1);
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
 
     /**
      * Sends a query asynchronously over the network channel and returns a CompletableFuture
-     * that will be completed with the response packet or null if no response is received.
+     * that will be completed with the response packet or null if no response is received
+     * within {@link #DEFAULT_TIMEOUT_MILLIS}.
      *
      * @param packet          The packet to be sent.
      * @param networkChannel  The network channel to send the packet over.
      * @return                A CompletableFuture that will be completed with the response packet,
      *                        or null if no response is received within the specified time limit.
      */
-    @SuppressWarnings("unchecked")
     public <T extends Packet> CompletableFuture<T> sendQueryFuture(
             @NonNull Object packet,
             @NonNull NetworkChannel networkChannel
+    ) {
+        return this.sendQueryFuture(packet, networkChannel, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a query asynchronously over the network channel and returns a CompletableFuture
+     * that will be completed with the response packet or null if no response is received in time.
+     * If the connection goes inactive first, the future completes exceptionally with a
+     * {@link ClosedChannelException}. The timeout travels with the query as its deadline, the responder
+     * skips the query once it passed. Cancelling the future tells the responder to stop as well.
+     * The future is completed on the event loop that read the response, so dependent stages
+     * should not block.
+     *
+     * @param packet          The packet to be sent.
+     * @param networkChannel  The network channel to send the packet over.
+     * @param timeout         The time to wait for the response.
+     * @param timeUnit        The unit of the timeout.
+     * @return                A CompletableFuture that will be completed with the response packet,
+     *                        or null if no response is received within the specified time limit.
+     */
+    public <T extends Packet> CompletableFuture<T> sendQueryFuture(
+            @NonNull Object packet,
+            @NonNull NetworkChannel networkChannel,
+            long timeout,
+            @NonNull TimeUnit timeUnit
     ) {
         // Check if the provided packet is a valid Packet instance
         if (!(packet instanceof Packet packetObj)) {
@@ -66,56 +104,253 @@ public class QueryPacketManager {
             return null;
         }
 
-        // Generate a unique query ID
-        var queryUniqueId = UUID.randomUUID();
-        // Assign the query ID to the packet
-        packetObj.queryId(queryUniqueId);
+        // Register the query under an ID which is unique on the connection of the network channel
+        var pendingRequests = PendingRequests.of(networkChannel.channel());
+        var deadline = System.currentTimeMillis() + timeUnit.toMillis(timeout);
+        var queryId = pendingRequests.nextRequestId();
+        NettyLib.debug(Level.INFO, this.getClass(), "Added to Waiting Handler: " + packetObj.getClass().getSimpleName() + ": " + queryId);
+        CompletableFuture<T> resultFuture = this.registerQuery(queryId, networkChannel, pendingRequests);
 
-        // Create a CompletableFuture to hold the result of the query
-        var resultFuture = new CompletableFuture<T>();
-        // Store a placeholder in the waitingHandlers map for the result
-        waitingHandlers.put(queryUniqueId, new Value<>(null));
-        // Schedule sending the packet over the network channel
-        executorService.schedule(() -> networkChannel.sendPacket(packetObj));
-        // Schedule a task to handle the response after a delay of 5000 milliseconds
-        executorService.schedule(() -> {
-            // Retrieve the result from waitingHandlers based on the query ID
-            Value<QueryResult> result = waitingHandlers.get(queryUniqueId);
-            // Remove the entry from waitingHandlers as the response has been received
-            waitingHandlers.remove(queryUniqueId);
-            // Check if the result is null or the packet in the result is null
-            if (result == null || result.value() == null || result.value().packet() == null) {
-                // Complete the CompletableFuture with null if the result is null
-                resultFuture.complete(null);
-            } else {
-                // Check if the packet in the result is a valid Packet instance
-                if (!(result.value().packet() instanceof Packet castedPacket)) {
-                    // Log an information message if the packet is not valid
-                    NettyLib.log(Level.INFO, this.getClass(), "Object Packet is not a valid Packet instance: " + result.value().packet().getClass().getName());
-                    // Complete the CompletableFuture with null if the packet is not valid
-                    resultFuture.complete(null);
-                } else {
-                    // Complete the CompletableFuture with the valid packet
-                    resultFuture.complete((T) castedPacket);
-                }
-            }
-        }, 5000);
+        // Complete the future with null if no response arrives in time
+        var timeoutTask = NettyUtils.timeoutTimer().newTimeout(timer -> resultFuture.complete(null), timeout, timeUnit);
+        resultFuture.whenComplete((result, throwable) -> timeoutTask.cancel());
+
+        // Fail right away if the connection is already gone, there is nobody left to answer
+        if (pendingRequests.failIfClosed(resultFuture)) {
+            return resultFuture;
+        }
+
+        // Send the packet over the network channel
+        this.writeQueries(List.of(networkChannel), new Packet[]{packetObj}, new long[]{queryId}, deadline);
         return resultFuture;
     }
 
     /**
      * Sends a query synchronously over the network channel and returns the response packet,
-     * or null if no response is received within the specified time limit.
+     * or null if no response is received within {@link #DEFAULT_TIMEOUT_MILLIS}.
      *
      * @param packet          The packet to be sent.
      * @param networkChannel  The network channel to send the packet over.
      * @return                The response packet, or null if no response is received within
      *                        the specified time limit.
      */
-    @SuppressWarnings("unchecked")
     public <T extends Packet> T sendQuery(
             @NonNull Object packet,
             @NonNull NetworkChannel networkChannel
+    ) {
+        return this.sendQuery(packet, networkChannel, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a query synchronously over the network channel and returns the response packet,
+     * or null if no response is received in time. The calling thread parks until then,
+     * so this must not be called from an event loop.
+     *
+     * @param packet          The packet to be sent.
+     * @param networkChannel  The network channel to send the packet over.
+     * @param timeout         The time to wait for the response.
+     * @param timeUnit        The unit of the timeout.
+     * @return                The response packet, or null if no response is received within
+     *                        the specified time limit.
+     */
+    public <T extends Packet> T sendQuery(
+            @NonNull Object packet,
+            @NonNull NetworkChannel networkChannel,
+            long timeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        CompletableFuture<T> resultFuture = this.sendQueryFuture(packet, networkChannel, timeout, timeUnit);
+        if (resultFuture == null) {
+            return null;
+        }
+        try {
+            // Park until the response arrives or the timeout completes the future with null
+            return resultFuture.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            resultFuture.cancel(false);
+            return null;
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof ClosedChannelException) {
+                NettyLib.debug(Level.INFO, this.getClass(), "Query failed, the connection was closed: " + packet.getClass().getSimpleName());
+            } else {
+                NettyLib.log(Level.SEVERE, this.getClass(), "Query failed: " + exception.getCause());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Sends many queries at once and returns a CompletableFuture for all of their responses.
+     * See {@link #sendQueriesFuture(Collection, NetworkChannel, long, TimeUnit)}.
+     *
+     * @param packets         The packets to be sent.
+     * @param networkChannel  The network channel to send the packets over.
+     * @return                A CompletableFuture that will be completed with the response packets
+     *                        in the order of the sent packets, or null if a packet is not valid.
+     */
+    public <T extends Packet> CompletableFuture<List<T>> sendQueriesFuture(
+            @NonNull Collection<?> packets,
+            @NonNull NetworkChannel networkChannel
+    ) {
+        return this.sendQueriesFuture(packets, networkChannel, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends many queries at once and returns a CompletableFuture for all of their responses.
+     * All queries are registered before any is written, then they are written in a single
+     * event loop task with one flush and share one timeout.
+     * A response that does not arrive in time is null in the resulting list. If the connection
+     * goes inactive first, the future completes exceptionally with a {@link ClosedChannelException}.
+     * The packets are written with their query IDs in one go, so the same packet can't be in the collection twice.
+     *
+     * @param packets         The packets to be sent.
+     * @param networkChannel  The network channel to send the packets over.
+     * @param timeout         The time to wait for the responses.
+     * @param timeUnit        The unit of the timeout.
+     * @return                A CompletableFuture that will be completed with the response packets
+     *                        in the order of the sent packets, or null if a packet is not valid.
+     */
+    public <T extends Packet> CompletableFuture<List<T>> sendQueriesFuture(
+            @NonNull Collection<?> packets,
+            @NonNull NetworkChannel networkChannel,
+            long timeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        // Check if all provided packets are valid Packet instances before anything is registered
+        for (var packet : packets) {
+            if (!(packet instanceof Packet)) {
+                // Log an information message if the packet is not valid
+                NettyLib.log(Level.INFO, this.getClass(), "Packet Object is not a valid Packet instance: " + packet.getClass().getName());
+                // Return null as the packet is not valid
+                return null;
+            }
+        }
+
+        // Register all queries at once, so no response can arrive before its query is waiting
+        var pendingRequests = PendingRequests.of(networkChannel.channel());
+        var deadline = System.currentTimeMillis() + timeUnit.toMillis(timeout);
+        var packetObjs = packets.toArray(Packet[]::new);
+        var queryIds = new long[packetObjs.length];
+        List<CompletableFuture<T>> resultFutures = new ArrayList<>(packetObjs.length);
+        for (var i = 0; i < packetObjs.length; i++) {
+            queryIds[i] = pendingRequests.nextRequestId();
+            NettyLib.debug(Level.INFO, this.getClass(), "Added to Waiting Handler: " + packetObjs[i].getClass().getSimpleName() + ": " + queryIds[i]);
+            resultFutures.add(this.registerQuery(queryIds[i], networkChannel, pendingRequests));
+        }
+
+        // Collect the responses in the order of the sent packets
+        var allFuture = CompletableFuture.allOf(resultFutures.toArray(CompletableFuture[]::new));
+        CompletableFuture<List<T>> resultFuture = allFuture.thenApply(unused -> {
+            List<T> results = new ArrayList<>(resultFutures.size());
+            for (var future : resultFutures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+
+        // One timeout for the whole batch completes every query which is still waiting with null
+        var timeoutTask = NettyUtils.timeoutTimer().newTimeout(timer -> {
+            for (var future : resultFutures) {
+                future.complete(null);
+            }
+        }, timeout, timeUnit);
+        resultFuture.whenComplete((result, throwable) -> {
+            timeoutTask.cancel();
+            // Cancelling the combined future stops waiting for the single queries as well
+            if (resultFuture.isCancelled()) {
+                for (var future : resultFutures) {
+                    future.cancel(false);
+                }
+            }
+        });
+
+        // Fail right away if the connection is already gone, there is nobody left to answer
+        for (var future : resultFutures) {
+            pendingRequests.failIfClosed(future);
+        }
+        if (pendingRequests.closed()) {
+            return resultFuture;
+        }
+
+        // Write all packets in one go and flush once
+        this.writeQueries(List.of(networkChannel), packetObjs, queryIds, deadline);
+        return resultFuture;
+    }
+
+    /**
+     * Sends many queries at once and waits for all of their responses.
+     * The calling thread parks until then, so this must not be called from an event loop.
+     *
+     * @param packets         The packets to be sent.
+     * @param networkChannel  The network channel to send the packets over.
+     * @return                The response packets in the order of the sent packets, a response that did
+     *                        not arrive in time is null. Null if the queries failed as a whole.
+     */
+    public <T extends Packet> List<T> sendQueries(
+            @NonNull Collection<?> packets,
+            @NonNull NetworkChannel networkChannel
+    ) {
+        CompletableFuture<List<T>> resultFuture = this.sendQueriesFuture(packets, networkChannel);
+        if (resultFuture == null) {
+            return null;
+        }
+        try {
+            // Park until every response arrived or the timeout completed the rest with null
+            return resultFuture.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            resultFuture.cancel(false);
+            return null;
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof ClosedChannelException) {
+                NettyLib.debug(Level.INFO, this.getClass(), "Queries failed, the connection was closed: " + packets.size());
+            } else {
+                NettyLib.log(Level.SEVERE, this.getClass(), "Queries failed: " + exception.getCause());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Sends one query to many network channels and gathers their responses within {@link #DEFAULT_TIMEOUT_MILLIS}.
+     * See {@link #scatterQuery(Object, Collection, GatherMode, int, long, TimeUnit)}.
+     *
+     * @param packet          The query packet, it is encoded only once per codec.
+     * @param networkChannels The network channels to send the query to.
+     * @param gatherMode      Decides when enough responses were gathered.
+     * @return                The scatter-gather query, or null if the packet is not valid.
+     */
+    public <T extends Packet> ScatterGather<T> scatterQuery(
+            @NonNull Object packet,
+            @NonNull Collection<NetworkChannel> networkChannels,
+            @NonNull GatherMode gatherMode
+    ) {
+        return this.scatterQuery(packet, networkChannels, gatherMode, -1, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends one query to many network channels and gathers their responses. The query is registered
+     * under the same ID on every connection, so it is encoded only once per codec, and all of its channels share
+     * one timeout. Network channels which share a connection receive the query only once.
+     *
+     * @param packet            The query packet, it is encoded only once per codec.
+     * @param networkChannels   The network channels to send the query to.
+     * @param gatherMode        Decides when enough responses were gathered.
+     * @param requiredResponses The number of responses which satisfy the gather mode,
+     *                          or a negative number for the default of the gather mode.
+     * @param timeout           The time to wait for the responses.
+     * @param timeUnit          The unit of the timeout.
+     * @return                  The scatter-gather query, or null if the packet is not valid.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Packet> ScatterGather<T> scatterQuery(
+            @NonNull Object packet,
+            @NonNull Collection<NetworkChannel> networkChannels,
+            @NonNull GatherMode gatherMode,
+            int requiredResponses,
+            long timeout,
+            @NonNull TimeUnit timeUnit
     ) {
         // Check if the provided packet is a valid Packet instance
         if (!(packet instanceof Packet packetObj)) {
@@ -125,75 +360,319 @@ public class QueryPacketManager {
             return null;
         }
 
-        // Generate a unique query ID
-        var queryUniqueId = UUID.randomUUID();
-        // Assign the query ID to the packet
-        packetObj.queryId(queryUniqueId);
+        // One query per connection, network channels sharing a connection would only get the same answer twice
+        Map<Boolean, List<NetworkChannel>> targets = new LinkedHashMap<>();
+        Set<Channel> channels = new HashSet<>();
+        for (var networkChannel : networkChannels) {
+            if (!networkChannel.inactive() && channels.add(networkChannel.channel())) {
+                // Connections of both sides need differently shaped IDs, so the targets are grouped by side
+                targets.computeIfAbsent(PendingRequests.of(networkChannel.channel()).initiator(), initiator -> new ArrayList<>())
+                        .add(networkChannel);
+            }
+        }
+        var targetCount = channels.size();
+        var required = Math.min(requiredResponses < 0 ? gatherMode.defaultCount(targetCount) : requiredResponses, targetCount);
+        var scatterGather = new ScatterGather<T>(gatherMode, required, targetCount);
+        if (targetCount == 0) {
+            return scatterGather;
+        }
 
-        // Store a placeholder in the waitingHandlers map for the result
-        waitingHandlers.put(queryUniqueId, new Value<>(null));
-        NettyLib.debug(Level.INFO, this.getClass(), "Added to Waiting Handler: " + packet.getClass().getSimpleName() + ": " + queryUniqueId);
+        var deadline = System.currentTimeMillis() + timeUnit.toMillis(timeout);
+        var previousQueryId = packetObj.queryId();
+        var previousDeadline = packetObj.deadline();
+        List<CompletableFuture<Packet>> resultFutures = new ArrayList<>(targetCount);
+        // The side whose codec can't encode up front, the pipeline encodes the packet once it is written
+        List<NetworkChannel> unencodedTargets = null;
+        var unencodedQueryId = Packet.NO_QUERY_ID;
+        for (var entry : targets.entrySet()) {
+            var queryId = PendingRequests.nextSharedRequestId(entry.getKey());
+            NettyLib.debug(Level.INFO, this.getClass(), "Scattering Query: " + packet.getClass().getSimpleName() + ": " + queryId + " to " + entry.getValue().size());
 
-        // Schedule sending the packet over the network channel
-        executorService.schedule(() -> {
-            NettyLib.debug(Level.INFO, this.getClass(), "Sending Query: " + packet.getClass().getSimpleName() + ": " + queryUniqueId);
-            networkChannel.sendPacket(packetObj);
-        });
+            // Register the query on every connection before any of them can answer
+            List<CompletableFuture<Packet>> sideFutures = new ArrayList<>(entry.getValue().size());
+            for (var networkChannel : entry.getValue()) {
+                var pendingRequests = PendingRequests.of(networkChannel.channel());
+                CompletableFuture<Packet> resultFuture = this.registerQuery(queryId, networkChannel, pendingRequests);
+                resultFuture.whenComplete((result, throwable) -> scatterGather.finish(networkChannel, throwable == null ? (T) result : null));
+                sideFutures.add(resultFuture);
+                pendingRequests.failIfClosed(resultFuture);
+            }
+            resultFutures.addAll(sideFutures);
 
-        var i = 0;
-        // Wait for the response or timeout after 5000 iterations
-        while (waitingHandlers.get(queryUniqueId).value() == null && i++ < 5000) {
+            // Encode the query once per codec and write the same bytes to its channels, the bytes keep the query ID
+            // of this side while the caller gets the packet back as it was
+            packetObj.queryId(queryId);
+            packetObj.deadline(deadline);
+            List<NetworkChannel> sideUnencoded;
             try {
-                // Sleep for 0.5 milliseconds
-                Thread.sleep(0, 500000);
-            } catch (InterruptedException ignored) {
+                sideUnencoded = NetworkChannel.sendEncodedPacket(packetObj, entry.getValue());
+            } finally {
+                packetObj.queryId(previousQueryId);
+                packetObj.deadline(previousDeadline);
+            }
+            if (sideUnencoded.isEmpty()) {
+                continue;
+            }
+            if (unencodedTargets == null) {
+                unencodedTargets = sideUnencoded;
+                unencodedQueryId = queryId;
+                continue;
+            }
+            // The packet is encoded after this method returned, so it can only carry the query ID of one side
+            NettyLib.log(Level.SEVERE, this.getClass(), "Scattered query " + packet.getClass().getSimpleName()
+                    + " can't be encoded up front for both sides, " + sideUnencoded.size() + " channels get no query");
+            for (var i = 0; i < entry.getValue().size(); i++) {
+                if (sideUnencoded.contains(entry.getValue().get(i))) {
+                    sideFutures.get(i).complete(null);
+                }
             }
         }
-
-        // If timeout occurs, set the result to indicate timeout
-        if (i >= 4999) {
-            waitingHandlers.get(queryUniqueId).value(new QueryResult(queryUniqueId, null));
+        if (unencodedTargets != null) {
+            // The pipelines encode the packet while it is written, with the query ID of their side
+            this.writeQueries(unencodedTargets, new Packet[]{packetObj}, new long[]{unencodedQueryId}, deadline);
         }
 
-        // Retrieve the result from waitingHandlers based on the query ID
-        var result = waitingHandlers.get(queryUniqueId);
-        // Remove the entry from waitingHandlers as the response has been received
-        waitingHandlers.remove(queryUniqueId);
-        // Check if the result is null or the packet in the result is null
-        if (result == null || result.value() == null || result.value().packet() == null) {
-            // Return null if the result is null
+        // One timeout for all channels completes every query which is still waiting with null
+        var timeoutTask = NettyUtils.timeoutTimer().newTimeout(timer -> {
+            for (var resultFuture : resultFutures) {
+                resultFuture.complete(null);
+            }
+        }, timeout, timeUnit);
+        scatterGather.future().whenComplete((result, throwable) -> {
+            timeoutTask.cancel();
+            // Enough responses were gathered or the caller gave up, stop the queries still running
+            for (var resultFuture : resultFutures) {
+                resultFuture.cancel(false);
+            }
+        });
+        return scatterGather;
+    }
+
+    /**
+     * Opens a query whose responder answers with a stream of packets. The query is sent once the
+     * returned publisher is subscribed, the responder then produces only as many packets as requested.
+     * The responder answers the query with {@link de.mariokurz.nettylib.network.protocol.receiver.PacketReceiver#respondStream}.
+     * The stream fails if the responder owes requested packets but sends none within {@link #DEFAULT_TIMEOUT_MILLIS}.
+     *
+     * @param packet          The packet to be sent.
+     * @param networkChannel  The network channel to send the packet over.
+     * @return                A publisher of the streamed response packets, or null if the packet is not valid.
+     */
+    public <T extends Packet> QueryStream<T> sendQueryStream(
+            @NonNull Object packet,
+            @NonNull NetworkChannel networkChannel
+    ) {
+        // Check if the provided packet is a valid Packet instance
+        if (!(packet instanceof Packet packetObj)) {
+            // Log an information message if the packet is not valid
+            NettyLib.log(Level.INFO, this.getClass(), "Packet Object is not a valid Packet instance: " + packet.getClass().getName());
+            // Return null as the packet is not valid
             return null;
         }
-        // Check if the packet in the result is a valid Packet instance
-        if (!(result.value().packet() instanceof Packet castedPacket)) {
-            // Log an information message if the packet is not valid
-            NettyLib.log(Level.INFO, this.getClass(), "Object Packet is not a valid Packet instance: " + result.value().packet().getClass().getName());
-            // Return null if the packet is not valid
+        return new QueryStream<>(packetObj, networkChannel);
+    }
+
+    /**
+     * Opens a query whose responder answers with a stream of packets, see {@link #sendQueryStream(Object, NetworkChannel)}.
+     * The stream fails if the responder owes requested packets but sends none within the idle timeout.
+     *
+     * @param packet          The packet to be sent.
+     * @param networkChannel  The network channel to send the packet over.
+     * @param idleTimeout     The time the responder may take to send a requested packet.
+     * @param timeUnit        The unit of the idle timeout.
+     * @return                A publisher of the streamed response packets, or null if the packet is not valid.
+     */
+    public <T extends Packet> QueryStream<T> sendQueryStream(
+            @NonNull Object packet,
+            @NonNull NetworkChannel networkChannel,
+            long idleTimeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        if (!(packet instanceof Packet packetObj)) {
+            NettyLib.log(Level.INFO, this.getClass(), "Packet Object is not a valid Packet instance: " + packet.getClass().getName());
             return null;
         }
-        // Return the valid packet
-        return (T) castedPacket;
+        return new QueryStream<>(packetObj, networkChannel, timeUnit.toMillis(idleTimeout));
+    }
+
+    /**
+     * Dispatches a received packet which controls a query: the cancellation of a query we answer,
+     * and the packets of query streams, either as requester or as responder.
+     *
+     * @param packet  The packet to be dispatched.
+     * @param channel The netty channel the packet was read from.
+     * @return True if the packet was consumed and must not be dispatched any further.
+     */
+    public boolean dispatchControl(
+            @NonNull Packet packet,
+            @NonNull Channel channel
+    ) {
+        if (packet.queryId() == Packet.NO_QUERY_ID) {
+            return false;
+        }
+        var pendingRequests = PendingRequests.of(channel);
+
+        // The peer did not answer our query in time, no response comes anymore
+        if (packet instanceof QueryCancelPacket && pendingRequests.ownsRequestId(packet.queryId())) {
+            NettyLib.debug(Level.INFO, this.getClass(), "Query expired on the responder: " + packet.queryId());
+            var waitingHandler = pendingRequests.queries().get(packet.queryId());
+            if (waitingHandler != null) {
+                waitingHandler.complete(null);
+            }
+            var subscription = pendingRequests.streams().get(packet.queryId());
+            if (subscription != null) {
+                subscription.fail(new QueryStreamException("Query stream " + packet.queryId() + " was not answered in time"));
+            }
+            return true;
+        }
+
+        // The peer gave up on a query we are answering, or on a stream we respond to
+        if (packet instanceof QueryCancelPacket) {
+            var receivedQuery = pendingRequests.receivedQueries().get(packet.queryId());
+            if (receivedQuery != null) {
+                NettyLib.debug(Level.INFO, this.getClass(), "Cancelled Query: " + packet.queryId());
+                receivedQuery.cancel();
+            }
+            var responder = pendingRequests.streamResponders().get(packet.queryId());
+            if (responder != null) {
+                responder.cancel();
+            }
+            return true;
+        }
+
+        // Credits and cancellations of the peer for a stream we respond to
+        if (packet instanceof QueryStreamDemandPacket demandPacket) {
+            var responder = QueryStreamResponder.of(channel, packet.queryId());
+            if (demandPacket.cancel()) {
+                responder.cancel();
+            } else {
+                responder.demand(demandPacket.demand());
+            }
+            return true;
+        }
+
+        // Elements and the end of a stream we requested
+        if (!pendingRequests.ownsRequestId(packet.queryId())) {
+            return false;
+        }
+        var subscription = pendingRequests.streams().get(packet.queryId());
+        if (packet instanceof QueryStreamEndPacket endPacket) {
+            if (subscription != null) {
+                subscription.complete(endPacket.error());
+            }
+            return true;
+        }
+        if (subscription == null) {
+            return false;
+        }
+        subscription.next(packet);
+        return true;
+    }
+
+    /**
+     * Registers a query ID as waiting for its response.
+     *
+     * @param queryId         The query ID, which must not be in use on the connection.
+     * @param networkChannel  The network channel the query will be sent over.
+     * @param pendingRequests The pending requests of the connection of the network channel.
+     * @return                A CompletableFuture which is completed by dispatch once the response arrives.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Packet> CompletableFuture<T> registerQuery(
+            long queryId,
+            @NonNull NetworkChannel networkChannel,
+            @NonNull PendingRequests pendingRequests
+    ) {
+        var resultFuture = new CompletableFuture<T>();
+        pendingRequests.queries().put(queryId, (CompletableFuture<Packet>) resultFuture);
+        networkChannel.inFlightRequests().incrementAndGet();
+
+        // However the future is completed, the query is no longer waiting
+        resultFuture.whenComplete((result, throwable) -> {
+            pendingRequests.queries().remove(queryId);
+            networkChannel.inFlightRequests().decrementAndGet();
+            // Tell the responder to stop working on a query the caller gave up on
+            if (resultFuture.isCancelled() && !pendingRequests.closed()) {
+                var cancelPacket = new QueryCancelPacket();
+                cancelPacket.queryId(queryId);
+                networkChannel.sendPacket(cancelPacket);
+            }
+        });
+        return resultFuture;
+    }
+
+    /**
+     * Writes query packets with the query IDs they were registered under and flushes once per network channel.
+     * The packets only carry the query ID and deadline on the event loops while they are written, which is where
+     * the pipelines encode them. Once every network channel wrote them, they get back the query IDs and deadlines
+     * they had before, so the caller may reuse them.
+     *
+     * @param networkChannels The network channels to write every packet to.
+     * @param packets         The query packets.
+     * @param queryIds        The query ID of every packet, the same on all network channels.
+     * @param deadline        The epoch millis after which the responses are no longer awaited.
+     */
+    private void writeQueries(
+            @NonNull List<NetworkChannel> networkChannels,
+            @NonNull Packet[] packets,
+            @NonNull long[] queryIds,
+            long deadline
+    ) {
+        var previousQueryIds = new long[packets.length];
+        var previousDeadlines = new long[packets.length];
+        for (var i = 0; i < packets.length; i++) {
+            previousQueryIds[i] = packets[i].queryId();
+            previousDeadlines[i] = packets[i].deadline();
+        }
+        var remainingWrites = new AtomicInteger(networkChannels.size());
+        for (var networkChannel : networkChannels) {
+            Runnable write = () -> {
+                // Every event loop assigns the same values, so writes of other network channels don't disturb it
+                for (var i = 0; i < packets.length; i++) {
+                    packets[i].queryId(queryIds[i]);
+                    packets[i].deadline(deadline);
+                }
+                try {
+                    networkChannel.sendPacket((Object[]) packets);
+                } finally {
+                    if (remainingWrites.decrementAndGet() == 0) {
+                        for (var i = 0; i < packets.length; i++) {
+                            packets[i].queryId(previousQueryIds[i]);
+                            packets[i].deadline(previousDeadlines[i]);
+                        }
+                    }
+                }
+            };
+            if (networkChannel.channel().executor().inEventLoop()) {
+                write.run();
+            } else {
+                networkChannel.channel().executor().execute(write);
+            }
+        }
     }
 
     /**
      * Dispatches a received packet to the appropriate waiting handler, if applicable.
      *
-     * @param packet The packet to be dispatched.
+     * @param packet  The packet to be dispatched.
+     * @param channel The netty channel the packet was read from.
      */
     public void dispatch(
-            @NonNull Packet packet
+            @NonNull Packet packet,
+            @NonNull Channel channel
     ) {
         // Check if the packet contains a query ID and if there's a waiting handler for it
-        NettyLib.debug(Level.INFO, this.getClass(), "Checken Packet: " + packet.queryId() + "/" + packet.getClass().getSimpleName());
-        if (packet.queryId() != null && waitingHandlers.containsKey(packet.queryId())) {
+        NettyLib.debug(Level.INFO, this.getClass(), "Checking Packet: " + packet.queryId() + "/" + packet.getClass().getSimpleName());
+        var pendingRequests = PendingRequests.of(channel);
+        // Only answers to our own queries can complete a waiting handler
+        if (!pendingRequests.ownsRequestId(packet.queryId())) {
+            return;
+        }
+        var waitingHandler = pendingRequests.queries().get(packet.queryId());
+        if (waitingHandler != null) {
             NettyLib.debug(Level.INFO, this.getClass(), "Processing Query: " + packet.queryId() + "/" + packet.getClass().getSimpleName());
-            // Retrieve the waiting handler associated with the packet's query ID
-            var waitingHandler = waitingHandlers.get(packet.queryId());
-            // Create a QueryResult object containing the query ID and the received packet
-            NettyLib.debug(Level.INFO, this.getClass(), "Setting Value of Query to: " + packet.queryId() + "/" + packet.getClass().getSimpleName());
-            var queryResult = new QueryResult(packet.queryId(), packet);
-            // Set the value of the waiting handler to the QueryResult
-            waitingHandler.value(queryResult);
+            // Complete the waiting future with the response, this also removes it and cancels its timeout
+            waitingHandler.complete(packet);
         }
     }
 
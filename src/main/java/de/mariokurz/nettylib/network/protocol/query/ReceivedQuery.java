@@ -0,0 +1,148 @@
+package de.mariokurz.nettylib.network.protocol.query;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 21:18 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.network.channel.PendingRequests;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.utils.NettyUtils;
+import io.netty5.channel.Channel;
+import io.netty5.util.Timeout;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * A query of the peer which is being answered by our packet receivers. The requester may cancel it,
+ * or its deadline may pass, in both cases nobody reads the response anymore.
+ * If no receiver answers it by then, it expires and the requester is told that no response comes.
+ */
+public class ReceivedQuery {
+
+    @Getter
+    private final long queryId;
+    private final long deadline;
+    // The number of receiver calls which have not returned yet
+    private final AtomicInteger runningReceivers = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Timeout expiry;
+
+    public ReceivedQuery(
+            @NonNull Packet packet,
+            int receivers
+    ) {
+        this.queryId = packet.queryId();
+        this.deadline = packet.deadline();
+        this.runningReceivers.set(receivers);
+    }
+
+    /**
+     * Checks whether the response to this query is still awaited.
+     *
+     * @return True if the requester cancelled the query or its deadline has passed.
+     */
+    public boolean abandoned() {
+        return this.cancelled || (this.deadline != Packet.NO_DEADLINE && System.currentTimeMillis() > this.deadline);
+    }
+
+    /**
+     * Forgets the query once its deadline passed, or after {@link QueryPacketManager#DEFAULT_TIMEOUT_MILLIS}
+     * if it has none, in case no receiver ever answers it. Unless the requester cancelled it already,
+     * it is sent a {@link QueryCancelPacket}, which completes its query with null right away.
+     *
+     * @param channel The netty channel the query was read from.
+     */
+    public void expireOn(
+            @NonNull Channel channel
+    ) {
+        var delay = this.deadline == Packet.NO_DEADLINE
+                ? QueryPacketManager.DEFAULT_TIMEOUT_MILLIS
+                : Math.max(0, this.deadline - System.currentTimeMillis());
+        this.expiry = NettyUtils.timeoutTimer().newTimeout(timeout -> this.expire(channel), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Unregisters the query once no receiver call or handle answers it anymore.
+     *
+     * @param pendingRequests The pending requests of the connection the query was read from.
+     */
+    public void unregister(
+            @NonNull PendingRequests pendingRequests
+    ) {
+        var expiry = this.expiry;
+        if (expiry != null) {
+            expiry.cancel();
+        }
+        pendingRequests.receivedQueries().remove(this.queryId);
+    }
+
+    private void expire(
+            @NonNull Channel channel
+    ) {
+        var pendingRequests = PendingRequests.of(channel);
+        // A receiver answered it in the meantime
+        if (pendingRequests.receivedQueries().get(this.queryId) != this) {
+            return;
+        }
+        pendingRequests.receivedQueries().remove(this.queryId);
+        var cancelled = this.cancelled;
+        // A late answer is dropped from now on
+        this.cancel();
+        if (cancelled || pendingRequests.closed()) {
+            return;
+        }
+        NettyLib.debug(Level.INFO, this.getClass(), "Expired unanswered query: " + this.queryId);
+        var cancelPacket = new QueryCancelPacket();
+        cancelPacket.queryId(this.queryId);
+        channel.writeAndFlush(cancelPacket);
+    }
+
+    /**
+     * Marks the query as cancelled by the requester.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Registers a response which is still pending after its receiver call returned,
+     * e.g. one that is completed later through a reply handle.
+     */
+    public void receiverStarted() {
+        this.runningReceivers.incrementAndGet();
+    }
+
+    /**
+     * Unregisters a receiver call which answers this query.
+     *
+     * @return True if it was the last running receiver call.
+     */
+    public boolean receiverFinished() {
+        return this.runningReceivers.decrementAndGet() == 0;
+    }
+}
@@ -0,0 +1,153 @@
+package de.mariokurz.nettylib.network.protocol.query;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 21:33 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * A query which was sent to many network channels at once. Responses are handed to the listeners
+ * as they arrive, and the future completes once the {@link GatherMode} is satisfied, every channel
+ * answered or failed, or the timeout passed. Once it completed, the queries still running are cancelled.
+ *
+ * @param <T> The type of the response packets.
+ */
+public class ScatterGather<T extends Packet> {
+
+    @Getter
+    private final GatherMode gatherMode;
+    @Getter
+    private final int requiredResponses;
+    private final int channels;
+    // Guarded by this
+    private final Map<NetworkChannel, T> responses = new LinkedHashMap<>();
+    private final List<BiConsumer<NetworkChannel, T>> listeners = new ArrayList<>();
+    private int finishedChannels;
+    private final CompletableFuture<Map<NetworkChannel, T>> future = new CompletableFuture<>();
+
+    public ScatterGather(
+            @NonNull GatherMode gatherMode,
+            int requiredResponses,
+            int channels
+    ) {
+        this.gatherMode = gatherMode;
+        this.requiredResponses = requiredResponses;
+        this.channels = channels;
+        if (channels == 0) {
+            this.complete();
+        }
+    }
+
+    /**
+     * Retrieves the future of the gathered responses.
+     *
+     * @return A CompletableFuture of the responses by the network channel which sent them, in the order they arrived.
+     *         Cancelling it cancels the queries which are still running.
+     */
+    public CompletableFuture<Map<NetworkChannel, T>> future() {
+        return this.future;
+    }
+
+    /**
+     * Registers a listener which is called with every response, including those which arrived before.
+     * Listeners are called on the event loop of the responding channel.
+     *
+     * @param listener The listener of the responses.
+     * @return This scatter-gather query.
+     */
+    public ScatterGather<T> onResponse(
+            @NonNull BiConsumer<NetworkChannel, T> listener
+    ) {
+        Map<NetworkChannel, T> received;
+        synchronized (this) {
+            this.listeners.add(listener);
+            received = new LinkedHashMap<>(this.responses);
+        }
+        received.forEach(listener);
+        return this;
+    }
+
+    /**
+     * Checks whether enough responses arrived to satisfy the gather mode.
+     *
+     * @return True if the required number of responses arrived.
+     */
+    public synchronized boolean satisfied() {
+        return this.responses.size() >= this.requiredResponses;
+    }
+
+    /**
+     * Hands over the outcome of the query on one channel.
+     *
+     * @param networkChannel The network channel the query was sent to.
+     * @param response       The response, or null if the channel did not answer in time or failed.
+     */
+    void finish(
+            @NonNull NetworkChannel networkChannel,
+            T response
+    ) {
+        List<BiConsumer<NetworkChannel, T>> listeners;
+        boolean done;
+        synchronized (this) {
+            if (this.future.isDone()) {
+                return;
+            }
+            this.finishedChannels++;
+            if (response != null) {
+                this.responses.put(networkChannel, response);
+            }
+            listeners = response == null ? List.of() : List.copyOf(this.listeners);
+            done = this.finishedChannels == this.channels
+                    || (this.gatherMode != GatherMode.TIMEOUT && this.responses.size() >= this.requiredResponses);
+        }
+        for (var listener : listeners) {
+            listener.accept(networkChannel, response);
+        }
+        if (done) {
+            this.complete();
+        }
+    }
+
+    /**
+     * Completes the query with the responses gathered so far, e.g. once its timeout passed.
+     */
+    void complete() {
+        Map<NetworkChannel, T> responses;
+        synchronized (this) {
+            responses = Collections.unmodifiableMap(new LinkedHashMap<>(this.responses));
+        }
+        this.future.complete(responses);
+    }
+}
@@ -0,0 +1,128 @@
+package de.mariokurz.nettylib.network.protocol.query.stream;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 22:58 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.query.QueryPacketManager;
+import lombok.NonNull;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * A query whose responder answers with any number of packets instead of a single one.
+ * The query is sent once the publisher is subscribed, the responder then only produces
+ * as many elements as the subscriber requested, so neither side holds the whole result.
+ * A query stream can be subscribed only once. It fails if the responder owes requested elements
+ * but sends none within the idle timeout.
+ *
+ * @param <T> The type of the streamed packets.
+ */
+public class QueryStream<T extends Packet> implements Flow.Publisher<T> {
+
+    private final Packet packet;
+    private final NetworkChannel networkChannel;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final long idleTimeoutMillis;
+
+    public QueryStream(
+            @NonNull Packet packet,
+            @NonNull NetworkChannel networkChannel
+    ) {
+        this(packet, networkChannel, QueryPacketManager.DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public QueryStream(
+            @NonNull Packet packet,
+            @NonNull NetworkChannel networkChannel,
+            long idleTimeoutMillis
+    ) {
+        this.packet = packet;
+        this.networkChannel = networkChannel;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (!this.subscribed.compareAndSet(false, true)) {
+            // Reactive streams demand onSubscribe before any onError
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A query stream can only be subscribed once"));
+            return;
+        }
+
+        // Generate a query ID which is unique on the connection and register the stream under it
+        var pendingRequests = this.networkChannel.pendingRequests();
+        var queryId = pendingRequests.nextRequestId();
+        var subscription = new QueryStreamSubscription<T>(queryId, this.networkChannel, pendingRequests, subscriber, this.idleTimeoutMillis);
+        pendingRequests.streams().put(queryId, subscription);
+        this.networkChannel.inFlightRequests().incrementAndGet();
+        NettyLib.debug(Level.INFO, this.getClass(), "Opened Query Stream: " + this.packet.getClass().getSimpleName() + ": " + queryId);
+
+        // The query goes out before any demand, both are written in order on the event loop
+        if (!pendingRequests.closed()) {
+            this.writeQuery(queryId);
+        }
+        subscriber.onSubscribe(subscription);
+        // Fail right away if the connection is already gone, there is nobody left to answer
+        if (pendingRequests.closed()) {
+            subscription.fail(new ClosedChannelException());
+        }
+    }
+
+    /**
+     * Writes the query on the event loop of the channel, the packet only carries the query ID while the pipeline
+     * encodes it and gets back the query ID it had before, so the caller may reuse it.
+     *
+     * @param queryId The query ID the stream is registered under.
+     */
+    private void writeQuery(long queryId) {
+        var executor = this.networkChannel.channel().executor();
+        if (!executor.inEventLoop()) {
+            executor.execute(() -> this.writeQuery(queryId));
+            return;
+        }
+        var previousQueryId = this.packet.queryId();
+        this.packet.queryId(queryId);
+        try {
+            this.networkChannel.sendPacket(this.packet);
+        } finally {
+            this.packet.queryId(previousQueryId);
+        }
+    }
+
+}
@@ -1,9 +1,9 @@
-package de.mariokurz.nettylib.network.protocol.query;
+package de.mariokurz.nettylib.network.protocol.query.stream;
 
 /*
  * MIT License
  *
- * Copyright (c) 2024 16:30 Mario Pascal K.
+ * Copyright (c) 2024 22:09 Mario Pascal K.
  *
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to deal
@@ -24,7 +24,12 @@ package de.mariokurz.nettylib.network.protocol.query;
  * SOFTWARE.
  */
 
-import java.util.UUID;
+/**
+ * Signals that the responder of a query stream failed while producing its elements.
+ */
+public class QueryStreamException extends RuntimeException {
 
-public record QueryResult(UUID queryId, Object packet) {
+    public QueryStreamException(String message) {
+        super(message);
+    }
 }
@@ -0,0 +1,309 @@
+package de.mariokurz.nettylib.network.protocol.query.stream;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 23:01 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.channel.PendingRequests;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.query.QueryPacketManager;
+import de.mariokurz.nettylib.utils.NettyUtils;
+import io.netty5.channel.Channel;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * The responding side of a query stream. Elements are only produced while the requester has granted
+ * credits, either by requesting them from a {@link Flow.Publisher} or by pulling them from an {@link Iterator}.
+ * Credits may arrive before the receiver starts streaming, they are kept until then. They are kept as long as
+ * a receiver of the query still runs, e.g. off the event loop. If no receiver started streaming once none runs anymore,
+ * at the earliest after {@link QueryPacketManager#DEFAULT_TIMEOUT_MILLIS}, the stream is ended with an error.
+ */
+public class QueryStreamResponder implements Flow.Subscriber<Packet> {
+
+    // The number of pulled elements which are written before the channel is flushed
+    private static final int ITERATOR_BATCH_SIZE = 64;
+
+    private final long queryId;
+    private final Channel channel;
+    private final PendingRequests pendingRequests;
+    private final AtomicBoolean finished = new AtomicBoolean();
+    // Guarded by this
+    private volatile NetworkChannel networkChannel;
+    private Flow.Subscription subscription;
+    private Iterator<? extends Packet> iterator;
+    private long credits;
+
+    private QueryStreamResponder(
+            long queryId,
+            @NonNull Channel channel
+    ) {
+        this.queryId = queryId;
+        this.channel = channel;
+        this.pendingRequests = PendingRequests.of(channel);
+    }
+
+    /**
+     * Retrieves the responder of a query stream, creating it if neither credits nor the stream arrived yet.
+     *
+     * @param channel The netty channel the query was received on.
+     * @param queryId The query ID of the stream.
+     * @return The responder of the query stream.
+     */
+    public static QueryStreamResponder of(
+            @NonNull Channel channel,
+            long queryId
+    ) {
+        var pendingRequests = PendingRequests.of(channel);
+        var responder = pendingRequests.streamResponders().get(queryId);
+        if (responder != null) {
+            return responder;
+        }
+        var created = new QueryStreamResponder(queryId, channel);
+        responder = pendingRequests.streamResponders().putIfAbsent(queryId, created);
+        if (responder != null) {
+            return responder;
+        }
+        // End the stream if nobody streams on it, e.g. the query had no receiver or demand arrived after the stream ended
+        created.scheduleIdleCheck();
+        return created;
+    }
+
+    /**
+     * Streams the elements of a publisher, requesting as many of them as the requester granted credits.
+     *
+     * @param networkChannel The network channel to stream the elements over.
+     * @param publisher      The publisher of the elements.
+     */
+    public void stream(
+            @NonNull NetworkChannel networkChannel,
+            @NonNull Flow.Publisher<? extends Packet> publisher
+    ) {
+        synchronized (this) {
+            if (!this.start(networkChannel)) {
+                return;
+            }
+        }
+        publisher.subscribe(this);
+    }
+
+    /**
+     * Streams the elements of an iterator, pulling as many of them as the requester granted credits.
+     * The iterator is pulled on the thread which delivers the credits, usually the event loop,
+     * so it should not block.
+     *
+     * @param networkChannel The network channel to stream the elements over.
+     * @param iterator       The iterator of the elements.
+     */
+    public synchronized void stream(
+            @NonNull NetworkChannel networkChannel,
+            @NonNull Iterator<? extends Packet> iterator
+    ) {
+        if (!this.start(networkChannel)) {
+            return;
+        }
+        this.iterator = iterator;
+        this.drain();
+    }
+
+    /**
+     * Grants the responder further credits.
+     *
+     * @param demand The number of elements the requester is ready to receive.
+     */
+    public void demand(
+            long demand
+    ) {
+        Flow.Subscription subscription;
+        synchronized (this) {
+            if (this.finished.get() || demand <= 0) {
+                return;
+            }
+            subscription = this.subscription;
+            if (subscription == null) {
+                // Keep the credits until the receiver starts streaming
+                this.credits = addCredits(this.credits, demand);
+                if (this.iterator != null) {
+                    this.drain();
+                }
+                return;
+            }
+        }
+        // Request outside the lock, publishers may emit synchronously from another thread
+        subscription.request(demand);
+    }
+
+    /**
+     * Cancels the stream, the requester is not interested in further elements.
+     */
+    public void cancel() {
+        Flow.Subscription subscription;
+        synchronized (this) {
+            if (!this.finish()) {
+                return;
+            }
+            subscription = this.subscription;
+            this.iterator = null;
+        }
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        long credits;
+        synchronized (this) {
+            if (this.subscription != null || this.finished.get()) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+            credits = this.credits;
+            this.credits = 0;
+        }
+        if (credits > 0) {
+            subscription.request(credits);
+        }
+    }
+
+    @Override
+    public void onNext(Packet packet) {
+        if (this.finished.get()) {
+            return;
+        }
+        packet.queryId(this.queryId);
+        this.networkChannel.sendPacket(packet);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        NettyLib.log(Level.SEVERE, this.getClass(), "Query Stream " + this.queryId + " failed: " + throwable);
+        this.end(String.valueOf(throwable));
+    }
+
+    @Override
+    public void onComplete() {
+        this.end(null);
+    }
+
+    private boolean start(
+            @NonNull NetworkChannel networkChannel
+    ) {
+        if (this.finished.get()) {
+            return false;
+        }
+        if (this.networkChannel != null) {
+            NettyLib.log(Level.INFO, this.getClass(), "Query Stream " + this.queryId + " is already streaming");
+            return false;
+        }
+        this.networkChannel = networkChannel;
+        return true;
+    }
+
+    // Called with the lock held
+    private void drain() {
+        var batch = new ArrayList<Packet>(ITERATOR_BATCH_SIZE);
+        try {
+            while (this.credits > 0 && this.iterator.hasNext()) {
+                var packet = this.iterator.next();
+                packet.queryId(this.queryId);
+                batch.add(packet);
+                if (this.credits != Long.MAX_VALUE) {
+                    this.credits--;
+                }
+                if (batch.size() == ITERATOR_BATCH_SIZE) {
+                    this.networkChannel.sendPacket(batch.toArray());
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                this.networkChannel.sendPacket(batch.toArray());
+            }
+            if (!this.iterator.hasNext()) {
+                this.end(null);
+            }
+        } catch (RuntimeException exception) {
+            if (!batch.isEmpty()) {
+                this.networkChannel.sendPacket(batch.toArray());
+            }
+            this.onError(exception);
+        }
+    }
+
+    private void scheduleIdleCheck() {
+        NettyUtils.timeoutTimer().newTimeout(timeout -> this.expireIfIdle(), QueryPacketManager.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void expireIfIdle() {
+        if (this.networkChannel != null || this.finished.get()) {
+            return;
+        }
+        // A receiver which still runs may start streaming later, it is bounded by the expiry of the received query
+        if (this.pendingRequests.receivedQueries().get(this.queryId) != null) {
+            this.scheduleIdleCheck();
+            return;
+        }
+        if (!this.finish()) {
+            return;
+        }
+        // The requester waits for the credits it granted, tell it that nothing will be streamed
+        NettyLib.debug(Level.INFO, this.getClass(), "Query Stream " + this.queryId + " was not streamed by any receiver");
+        var endPacket = new QueryStreamEndPacket("No receiver streamed query " + this.queryId);
+        endPacket.queryId(this.queryId);
+        this.channel.writeAndFlush(endPacket);
+    }
+
+    private void end(
+            String error
+    ) {
+        if (!this.finish()) {
+            return;
+        }
+        var endPacket = new QueryStreamEndPacket(error);
+        endPacket.queryId(this.queryId);
+        this.networkChannel.sendPacket(endPacket);
+    }
+
+    private boolean finish() {
+        if (!this.finished.compareAndSet(false, true)) {
+            return false;
+        }
+        this.pendingRequests.streamResponders().remove(this.queryId);
+        return true;
+    }
+
+    private static long addCredits(long credits, long demand) {
+        var sum = credits + demand;
+        // Saturate at Long.MAX_VALUE, which means unbounded
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+}
@@ -0,0 +1,216 @@
+package de.mariokurz.nettylib.network.protocol.query.stream;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 18:25 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.channel.PendingRequests;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.query.QueryCancelPacket;
+import de.mariokurz.nettylib.utils.NettyUtils;
+import io.netty5.util.Timeout;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The requesting side of a query stream. Demand of the subscriber is collected and sent to the
+ * responder as credits, at most one demand packet per event loop cycle.
+ * Elements and the end of the stream are signalled on the event loop of the connection.
+ * While the responder owes granted elements, it has to send one within the idle timeout,
+ * otherwise the stream fails with a {@link TimeoutException} and the responder is told to stop.
+ *
+ * @param <T> The type of the streamed packets.
+ */
+public class QueryStreamSubscription<T extends Packet> implements Flow.Subscription {
+
+    @Getter
+    private final long queryId;
+    private final NetworkChannel networkChannel;
+    private final PendingRequests pendingRequests;
+    private final Flow.Subscriber<? super T> subscriber;
+    // Demand which has been requested by the subscriber but not sent to the responder yet
+    private final AtomicLong unsentDemand = new AtomicLong();
+    private final AtomicBoolean demandScheduled = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    // Demand which was sent to the responder but not answered with elements yet, saturating at Long.MAX_VALUE
+    private final AtomicLong owedElements = new AtomicLong();
+    private final long idleTimeoutMillis;
+    // Millis of the last element, or of the demand which made the responder owe elements again
+    private volatile long lastActivity;
+    private volatile Timeout idleTimeout;
+
+    public QueryStreamSubscription(
+            long queryId,
+            @NonNull NetworkChannel networkChannel,
+            @NonNull PendingRequests pendingRequests,
+            @NonNull Flow.Subscriber<? super T> subscriber,
+            long idleTimeoutMillis
+    ) {
+        this.queryId = queryId;
+        this.networkChannel = networkChannel;
+        this.pendingRequests = pendingRequests;
+        this.subscriber = subscriber;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.lastActivity = System.currentTimeMillis();
+        this.scheduleIdleCheck(idleTimeoutMillis);
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            this.cancel();
+            this.subscriber.onError(new IllegalArgumentException("Demand must be positive: " + n));
+            return;
+        }
+        // Sum up the demand, saturating at Long.MAX_VALUE which means unbounded
+        this.unsentDemand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+        // Subscribers usually request one element at a time, send the collected demand once per cycle
+        if (this.demandScheduled.compareAndSet(false, true)) {
+            this.networkChannel.channel().executor().execute(this::sendDemand);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        if (this.finish()) {
+            this.send(new QueryStreamDemandPacket(0, true));
+        }
+    }
+
+    /**
+     * Signals a streamed element to the subscriber.
+     *
+     * @param packet The received element.
+     */
+    @SuppressWarnings("unchecked")
+    public void next(
+            @NonNull Packet packet
+    ) {
+        if (!this.finished.get()) {
+            this.lastActivity = System.currentTimeMillis();
+            this.owedElements.getAndUpdate(owed -> owed == Long.MAX_VALUE || owed == 0 ? owed : owed - 1);
+            this.subscriber.onNext((T) packet);
+        }
+    }
+
+    /**
+     * Signals the end of the stream to the subscriber.
+     *
+     * @param error The error message of the responder, or null if the stream completed normally.
+     */
+    public void complete(
+            String error
+    ) {
+        if (!this.finish()) {
+            return;
+        }
+        if (error == null) {
+            this.subscriber.onComplete();
+        } else {
+            this.subscriber.onError(new QueryStreamException(error));
+        }
+    }
+
+    /**
+     * Fails the stream, for example because its connection went inactive.
+     *
+     * @param throwable The cause of the failure.
+     * @return True if the stream was still running.
+     */
+    public boolean fail(
+            @NonNull Throwable throwable
+    ) {
+        if (!this.finish()) {
+            return false;
+        }
+        this.subscriber.onError(throwable);
+        return true;
+    }
+
+    private void sendDemand() {
+        this.demandScheduled.set(false);
+        var demand = this.unsentDemand.getAndSet(0);
+        if (demand > 0 && !this.finished.get()) {
+            // The idle time counts from the moment the responder owes elements again
+            if (this.owedElements.getAndAccumulate(demand, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added) == 0) {
+                this.lastActivity = System.currentTimeMillis();
+            }
+            this.send(new QueryStreamDemandPacket(demand, false));
+        }
+    }
+
+    private void scheduleIdleCheck(
+            long delayMillis
+    ) {
+        this.idleTimeout = NettyUtils.timeoutTimer().newTimeout(timeout -> this.checkIdle(), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkIdle() {
+        if (this.finished.get()) {
+            return;
+        }
+        // A subscriber which requests nothing is not waiting for the responder
+        if (this.owedElements.get() == 0) {
+            this.scheduleIdleCheck(this.idleTimeoutMillis);
+            return;
+        }
+        var idleMillis = System.currentTimeMillis() - this.lastActivity;
+        if (idleMillis < this.idleTimeoutMillis) {
+            this.scheduleIdleCheck(this.idleTimeoutMillis - idleMillis);
+            return;
+        }
+        if (!this.finish()) {
+            return;
+        }
+        // The responder may have no receiver for the query or may have dropped the stream, stop it either way
+        this.send(new QueryCancelPacket());
+        this.subscriber.onError(new TimeoutException("Query stream " + this.queryId + " received nothing for " + idleMillis + "ms"));
+    }
+
+    private boolean finish() {
+        if (!this.finished.compareAndSet(false, true)) {
+            return false;
+        }
+        this.pendingRequests.streams().remove(this.queryId);
+        this.networkChannel.inFlightRequests().decrementAndGet();
+        var idleTimeout = this.idleTimeout;
+        if (idleTimeout != null) {
+            idleTimeout.cancel();
+        }
+        return true;
+    }
+
+    private void send(
+            @NonNull Packet packet
+    ) {
+        packet.queryId(this.queryId);
+        this.networkChannel.sendPacket(packet);
+    }
+}
@@ -0,0 +1,57 @@
+package de.mariokurz.nettylib.network.protocol.receiver;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 21:23 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.protocol.Packet;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * A packet receiver which answers queries asynchronously. The returned stage may be completed
+ * from any thread, the response is sent once it completes.
+ *
+ * @param <T> The type of the handled packet.
+ */
+public abstract class AsyncPacketReceiver<T extends Packet> extends PacketReceiver<T> {
+
+    /**
+     * Receives a query and starts answering it.
+     *
+     * @param packet         The received packet.
+     * @param networkChannel The network channel through which the packet was received.
+     * @return The stage which completes with the response, or null if the packet is not answered.
+     */
+    public abstract CompletionStage<? extends Packet> receiveQuery(T packet, NetworkChannel networkChannel);
+
+    @Override
+    public final void receivePacket(T packet, NetworkChannel networkChannel) {
+        var responseStage = this.receiveQuery(packet, networkChannel);
+        if (responseStage != null) {
+            this.respondAsync(responseStage, networkChannel);
+        }
+    }
+
+}
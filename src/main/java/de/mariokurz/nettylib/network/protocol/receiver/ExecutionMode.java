@@ -0,0 +1,90 @@
+package de.mariokurz.nettylib.network.protocol.receiver;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 18:47 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import io.netty5.util.concurrent.DefaultThreadFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public enum ExecutionMode {
+
+    /**
+     * The receiver runs directly on the netty event loop of the channel, blocking its IO while it runs.
+     */
+    EVENT_LOOP,
+
+    /**
+     * The receiver runs on a virtual thread, packets of one channel are delivered in order.
+     * Falls back to an unbounded pool of platform threads if the runtime has no virtual threads.
+     */
+    VIRTUAL_THREAD,
+
+    /**
+     * The receiver runs on a shared pool sized to the available processors,
+     * packets of one channel are delivered in order.
+     */
+    SHARED_POOL;
+
+    /**
+     * Retrieves the executor backing this execution mode.
+     *
+     * @return The executor, or null for {@link #EVENT_LOOP}.
+     */
+    public ExecutorService executor() {
+        return switch (this) {
+            case EVENT_LOOP -> null;
+            case VIRTUAL_THREAD -> VirtualThreadHolder.EXECUTOR;
+            case SHARED_POOL -> SharedPoolHolder.EXECUTOR;
+        };
+    }
+
+    private static final class VirtualThreadHolder {
+
+        private static final ExecutorService EXECUTOR = create();
+
+        private static ExecutorService create() {
+            try {
+                // Executors.newVirtualThreadPerTaskExecutor() is only available on Java 21 and newer
+                var handle = MethodHandles.publicLookup().findStatic(
+                        Executors.class,
+                        "newVirtualThreadPerTaskExecutor",
+                        MethodType.methodType(ExecutorService.class));
+                return (ExecutorService) handle.invoke();
+            } catch (Throwable ignored) {
+                return Executors.newCachedThreadPool(new DefaultThreadFactory("nettylib-receiver", true));
+            }
+        }
+    }
+
+    private static final class SharedPoolHolder {
+
+        private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new DefaultThreadFactory("nettylib-receiver-pool", true));
+    }
+}
@@ -25,14 +25,21 @@ package de.mariokurz.nettylib.network.protocol.receiver;
  */
 
 import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.NettyLib;
 import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.query.ReceivedQuery;
+import de.mariokurz.nettylib.network.protocol.query.stream.QueryStreamResponder;
 import lombok.NonNull;
 
-import java.util.UUID;
+import java.util.Iterator;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.logging.Level;
 
 public abstract class PacketReceiver<T extends Packet> {
 
-    protected UUID queryId; // Declaration of a protected member variable queryId of type UUID. This variable is accessible within this class and its subclasses.
+    protected long queryId; // Declaration of a protected member variable queryId of type long. This variable is accessible within this class and its subclasses.
+    ReceivedQuery receivedQuery; // The query of the peer this receiver answers, set by the PacketReceiverManager. Null if the packet is no query.
 
     public abstract void receivePacket(T packet, NetworkChannel networkChannel);
     // Abstract method declaration that defines a contract for classes extending this one. It specifies that any subclass must implement this method.
@@ -45,9 +52,54 @@ public abstract class PacketReceiver<T extends Packet> {
         // Parameters:
         //   - packet: The packet to respond with.
         //   - networkChannel: The network channel through which the response will be sent.
+        if (queryAbandoned()) {
+            NettyLib.debug(Level.INFO, this.getClass(), "Dropping response to abandoned query: " + queryId); // Nobody reads the response anymore, don't send it.
+            return;
+        }
         packet.queryId(queryId); // Set the queryId of the response packet to match the queryId of the original packet.
         networkChannel.sendPacket(packet); // Send the response packet through the provided network channel.
     }
 
+    public ReplyHandle replyHandle(@NonNull NetworkChannel networkChannel) {
+        // Method to capture the query of the received packet, so it can be answered after receivePacket returned.
+        // Parameters:
+        //   - networkChannel: The network channel through which the response will be sent.
+        // Returns:
+        //   - A handle which can be replied to once from any thread.
+        return new ReplyHandle(queryId, networkChannel, receivedQuery);
+    }
+
+    public void respondAsync(@NonNull CompletionStage<? extends Packet> responseStage, @NonNull NetworkChannel networkChannel) {
+        // Method to respond to a received packet once a stage completes, without blocking the event loop.
+        // Parameters:
+        //   - responseStage: The stage which completes with the response packet. Failed or null results are not answered.
+        //   - networkChannel: The network channel through which the response will be sent.
+        replyHandle(networkChannel).replyWith(responseStage);
+    }
+
+    public boolean queryAbandoned() {
+        // Method to check whether the requester still waits for the response.
+        // Long running receivers should check it and stop early.
+        // Returns:
+        //   - true if the requester cancelled the query or its deadline has passed.
+        return receivedQuery != null && receivedQuery.abandoned();
+    }
+
+    public void respondStream(@NonNull Flow.Publisher<? extends Packet> publisher, @NonNull NetworkChannel networkChannel) {
+        // Method to respond to a received query stream with the packets of a publisher.
+        // Parameters:
+        //   - publisher: The publisher of the response packets, only as many as the requester granted are requested from it.
+        //   - networkChannel: The network channel through which the response packets will be sent.
+        QueryStreamResponder.of(networkChannel.channel(), queryId).stream(networkChannel, publisher); // Stream under the queryId of the original packet.
+    }
+
+    public void respondStream(@NonNull Iterator<? extends Packet> iterator, @NonNull NetworkChannel networkChannel) {
+        // Method to respond to a received query stream with the packets of an iterator.
+        // Parameters:
+        //   - iterator: The iterator of the response packets, it is pulled on the event loop whenever the requester grants credits.
+        //   - networkChannel: The network channel through which the response packets will be sent.
+        QueryStreamResponder.of(networkChannel.channel(), queryId).stream(networkChannel, iterator); // Stream under the queryId of the original packet.
+    }
+
 
 }
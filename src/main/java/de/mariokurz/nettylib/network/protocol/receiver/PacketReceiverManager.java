@@ -26,36 +26,74 @@ package de.mariokurz.nettylib.network.protocol.receiver;
 
 import de.mariokurz.nettylib.NettyLib;
 import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.channel.PendingRequests;
 import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.PacketTypes;
+import de.mariokurz.nettylib.network.protocol.interest.PacketInterestPacket;
+import de.mariokurz.nettylib.network.protocol.query.ReceivedQuery;
+import io.netty5.channel.Channel;
 import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.util.AttributeKey;
+import lombok.Getter;
 import lombok.NonNull;
+import lombok.Setter;
+
+import javax.annotation.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 public class PacketReceiverManager {
 
-    private final Map<Class<? extends Packet>, List<Class<? extends PacketReceiver<?>>>> packetReceivers = new HashMap<>();
+    private static final AttributeKey<SerialExecutor> VIRTUAL_THREAD_QUEUE = AttributeKey.valueOf("nettylib-virtual-thread-queue");
+    private static final AttributeKey<SerialExecutor> SHARED_POOL_QUEUE = AttributeKey.valueOf("nettylib-shared-pool-queue");
+    private static final AttributeKey<Map<BatchKey, List<Packet>>> PENDING_BATCHES = AttributeKey.valueOf("nettylib-pending-batches");
+    private static final ClassValue<ExecutionMode> DECLARED_EXECUTION_MODES = new ClassValue<>() {
+        @Override
+        protected ExecutionMode computeValue(Class<?> type) {
+            var execution = type.getAnnotation(PacketReceiverExecution.class);
+            return execution == null ? null : execution.value();
+        }
+    };
+
+    private final Map<Class<?>, List<Class<? extends PacketReceiver<?>>>> packetReceivers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, List<Class<? extends BatchPacketReceiver<?>>>> batchPacketReceivers = new ConcurrentHashMap<>();
+    // Resolved receivers per concrete packet class, replaced whenever the registrations change
+    private volatile ClassValue<DispatchEntry> dispatchTable = this.createDispatchTable();
+    // Execution mode of all receivers that are not annotated with PacketReceiverExecution
+    @Getter
+    @Setter
+    @NonNull
+    private volatile ExecutionMode defaultExecutionMode = ExecutionMode.EVENT_LOOP;
+    // Told about every packet type which gains its first or loses its last receiver
+    @Nullable
+    private Consumer<PacketInterestPacket> interestListener;
 
     /**
      * Registers a packet handler for a specific type of packet.
+     * The handler is also called for every subclass or implementation of the given packet type.
      *
-     * @param packet         The class object representing the type of packet to handle.
+     * @param packet         The type of packet to handle, a packet class or an interface packets implement.
      * @param packetReceiver The class object representing the packet receiver to register.
      *                       It must implement the PacketReceiver interface for the corresponding packet type.
      * @param <P>            The type parameter representing the packet.
      */
-    public <P extends Packet> void registerPacketHandler(
-            @NonNull Class<? extends Packet> packet,
+    public synchronized <P extends Packet> void registerPacketHandler(
+            @NonNull Class<?> packet,
             @NonNull Class<? extends PacketReceiver<P>> packetReceiver
     ) {
-        // Check if there is already a list of packet receivers registered for this packet type
-        if (!this.packetReceivers.containsKey(packet)) {
-            // If not, create a new list
-            this.packetReceivers.put(packet, new ArrayList<>());
+        if (!this.receivable(packet)) {
+            return;
         }
+        var hadReceivers = this.hasReceivers(packet);
         // Add the packet receiver to the list of packet receivers for this packet type
-        this.packetReceivers.get(packet).add(packetReceiver);
+        this.packetReceivers.computeIfAbsent(packet, aClass -> new CopyOnWriteArrayList<>()).add(packetReceiver);
+        // Drop all resolved receiver lists, they are rebuilt lazily on the next dispatch
+        this.dispatchTable = this.createDispatchTable();
+        this.interestChanged(packet, hadReceivers);
     }
 
     /**
@@ -66,14 +104,18 @@ public class PacketReceiverManager {
      * @param <P>    The type parameter representing the packet.
      * @return       True if the packet packetReceiver is successfully unregistered, false otherwise.
      */
-    public <P extends Packet> boolean unregisterPacketHandler(
-            @NonNull Class<? extends Packet> packet,
+    public synchronized <P extends Packet> boolean unregisterPacketHandler(
+            @NonNull Class<?> packet,
             @NonNull Class<? extends PacketReceiver<P>> packetReceiver
     ) {
+        if (!this.receivable(packet)) {
+            return false;
+        }
         // Check if there are packet handlers registered for this packet type
         if (!this.packetReceivers.containsKey(packet)) {
             return false; // No handlers registered for this packet type
         }
+        var hadReceivers = this.hasReceivers(packet);
         // Retrieve the list of packet handlers for this packet type
         Collection<Class<? extends PacketReceiver<?>>> handlers = this.packetReceivers.get(packet);
         // Remove the specified packet packetReceiver from the list
@@ -82,32 +124,154 @@ public class PacketReceiverManager {
         if (handlers.isEmpty()) {
             this.packetReceivers.remove(packet);
         }
+        // Drop all resolved receiver lists, they are rebuilt lazily on the next dispatch
+        this.dispatchTable = this.createDispatchTable();
+        this.interestChanged(packet, hadReceivers);
         return true; // Successfully unregistered the packet packetReceiver
     }
 
     /**
-     * Retrieves the packet receivers registered for a specific type of packet.
+     * Registers a batch packet handler for a specific type of packet.
+     * All packets of that type which are read from a channel in one read cycle are passed to it at once.
+     *
+     * @param packet              The type of packet to handle, a packet class or an interface packets implement.
+     * @param batchPacketReceiver The class object representing the batch packet receiver to register.
+     * @param <P>                 The type parameter representing the packet.
+     */
+    public synchronized <P extends Packet> void registerBatchPacketHandler(
+            @NonNull Class<?> packet,
+            @NonNull Class<? extends BatchPacketReceiver<P>> batchPacketReceiver
+    ) {
+        if (!this.receivable(packet)) {
+            return;
+        }
+        var hadReceivers = this.hasReceivers(packet);
+        // Add the batch packet receiver to the list of batch packet receivers for this packet type
+        this.batchPacketReceivers.computeIfAbsent(packet, aClass -> new CopyOnWriteArrayList<>()).add(batchPacketReceiver);
+        // Drop all resolved receiver lists, they are rebuilt lazily on the next dispatch
+        this.dispatchTable = this.createDispatchTable();
+        this.interestChanged(packet, hadReceivers);
+    }
+
+    /**
+     * Unregisters a batch packet handler for a specific type of packet.
+     *
+     * @param packet              The class object representing the type of packet to handle.
+     * @param batchPacketReceiver The class object representing the batch packet receiver to unregister.
+     * @param <P>                 The type parameter representing the packet.
+     * @return                    True if the batch packet handler is successfully unregistered, false otherwise.
+     */
+    public synchronized <P extends Packet> boolean unregisterBatchPacketHandler(
+            @NonNull Class<?> packet,
+            @NonNull Class<? extends BatchPacketReceiver<P>> batchPacketReceiver
+    ) {
+        if (!this.receivable(packet)) {
+            return false;
+        }
+        var handlers = this.batchPacketReceivers.get(packet);
+        if (handlers == null) {
+            return false; // No handlers registered for this packet type
+        }
+        var hadReceivers = this.hasReceivers(packet);
+        handlers.remove(batchPacketReceiver);
+        if (handlers.isEmpty()) {
+            this.batchPacketReceivers.remove(packet);
+        }
+        // Drop all resolved receiver lists, they are rebuilt lazily on the next dispatch
+        this.dispatchTable = this.createDispatchTable();
+        this.interestChanged(packet, hadReceivers);
+        return true;
+    }
+
+    /**
+     * Advertises the packet types receivers are registered for, e.g. to the server so it skips every other packet
+     * type when broadcasting. The listener gets all packet types at once and then every change,
+     * until another listener is set.
+     *
+     * @param interestListener Sends the packet types to the server.
+     */
+    public synchronized void advertiseInterests(
+            @NonNull Consumer<PacketInterestPacket> interestListener
+    ) {
+        this.interestListener = interestListener;
+        interestListener.accept(new PacketInterestPacket(this.packetTypes(), List.of(), true));
+    }
+
+    /**
+     * Retrieves the class names of all packet types receivers or batch receivers are registered for.
+     *
+     * @return The class names of the packet types.
+     */
+    public synchronized List<String> packetTypes() {
+        var packetTypes = new LinkedHashSet<String>();
+        this.packetReceivers.keySet().forEach(packet -> packetTypes.add(packet.getName()));
+        this.batchPacketReceivers.keySet().forEach(packet -> packetTypes.add(packet.getName()));
+        return List.copyOf(packetTypes);
+    }
+
+    private boolean receivable(
+            @NonNull Class<?> packet
+    ) {
+        if (PacketTypes.receivable(packet)) {
+            return true;
+        }
+        NettyLib.log(Level.SEVERE, this.getClass(), "Packets are never received as " + packet.getName() + ", it is neither a packet nor an interface");
+        return false;
+    }
+
+    private boolean hasReceivers(
+            @NonNull Class<?> packet
+    ) {
+        return this.packetReceivers.containsKey(packet) || this.batchPacketReceivers.containsKey(packet);
+    }
+
+    /**
+     * Advertises a packet type which gained its first or lost its last receiver.
+     *
+     * @param packet       The packet type.
+     * @param hadReceivers Whether receivers were registered for the packet type before the change.
+     */
+    private void interestChanged(
+            @NonNull Class<?> packet,
+            boolean hadReceivers
+    ) {
+        var hasReceivers = this.hasReceivers(packet);
+        if (this.interestListener == null || hadReceivers == hasReceivers) {
+            return;
+        }
+        var packetType = List.of(packet.getName());
+        this.interestListener.accept(hasReceivers
+                ? new PacketInterestPacket(packetType, List.of(), false)
+                : new PacketInterestPacket(List.of(), packetType, false));
+    }
+
+    /**
+     * Retrieves the packet receivers registered for a specific type of packet,
+     * including the receivers registered for its superclasses and interfaces.
      *
      * @param packet The packet for which to retrieve the packet receivers.
      * @param <P>    The type parameter representing the packet.
      * @return       A collection of packet receivers for the specified packet type.
      */
+    @SuppressWarnings("unchecked")
     public <P extends Packet> Collection<PacketReceiver<P>> getReceivers(
             @NonNull P packet
     ) {
+        // Look up the receiver classes resolved for the concrete packet class
+        var receiverClasses = this.dispatchTable.get(packet.getClass()).receivers();
+        if (receiverClasses.isEmpty()) {
+            return Collections.emptyList();
+        }
         // Create a new collection to store the packet receivers
-        Collection<PacketReceiver<P>> handlers = new LinkedList<>();
-        // Check if there are packet receivers registered for the class of the given packet
-        if (packetReceivers.containsKey(packet.getClass())) {
-            // Iterate through each packet receiver class registered for the packet type
-            for (Class<? extends PacketReceiver<?>> aClass : packetReceivers.get(packet.getClass())) {
-                try {
-                    // Instantiate a new instance of the packet receiver and add it to the collection
-                    handlers.add((PacketReceiver<P>) aClass.newInstance());
-                } catch (InstantiationException | IllegalAccessException | ClassCastException exception) {
-                    // Log an error if instantiation fails or if there's a class cast exception
-                    NettyLib.log(Level.SEVERE, this.getClass(), exception.getMessage());
-                }
+        Collection<PacketReceiver<P>> handlers = new ArrayList<>(receiverClasses.size());
+        // Iterate through each packet receiver class registered for the packet type
+        for (Class<? extends PacketReceiver<?>> aClass : receiverClasses) {
+            try {
+                // Instantiate a new instance of the packet receiver and add it to the collection
+                handlers.add((PacketReceiver<P>) aClass.newInstance());
+            } catch (InstantiationException | IllegalAccessException | ClassCastException exception) {
+                // Log an error if instantiation fails or if there's a class cast exception
+                NettyLib.log(Level.SEVERE, this.getClass(), exception.getMessage());
             }
         }
         return handlers; // Return the collection of packet receivers
@@ -115,6 +279,7 @@ public class PacketReceiverManager {
 
     /**
      * Dispatches a packet to all registered packet receivers for its type.
+     * Batch packet receivers only collect the packet, they are called by {@link #flushBatches(ChannelHandlerContext)}.
      *
      * @param packet             The packet to dispatch.
      * @param networkChannel     The network channel associated with the packet.
@@ -128,16 +293,249 @@ public class PacketReceiverManager {
             @NonNull ChannelHandlerContext channelHandlerContext
     ) {
         var calledCount = 0; // Initialize the count of called packet receivers
+        // Collect the packet for every batch packet receiver registered for the packet type
+        var batchReceivers = this.dispatchTable.get(packet.getClass()).batchReceivers();
+        if (!batchReceivers.isEmpty()) {
+            var pendingBatches = this.pendingBatches(channelHandlerContext.channel());
+            for (var batchReceiver : batchReceivers) {
+                calledCount++;
+                pendingBatches.computeIfAbsent(new BatchKey(batchReceiver, networkChannel), batchKey -> new ArrayList<>()).add(packet);
+            }
+        }
+        if (this.dispatchTable.get(packet.getClass()).receivers().isEmpty()) {
+            return calledCount;
+        }
+        // A packet carrying a query ID of the peer is a query we are asked to answer
+        var pendingRequests = PendingRequests.of(channelHandlerContext.channel());
+        var isQuery = packet.queryId() != Packet.NO_QUERY_ID && !pendingRequests.ownsRequestId(packet.queryId());
+        // Nobody waits for the response anymore, don't even create the receivers
+        if (isQuery && packet.deadlineExpired()) {
+            NettyLib.debug(Level.INFO, this.getClass(), "Skipping expired query: " + packet.queryId() + "/" + packet.getClass().getSimpleName());
+            return calledCount;
+        }
+        var listeners = this.getReceivers(packet);
+        // Track the query while its receivers run, so the requester can cancel it
+        ReceivedQuery receivedQuery = null;
+        if (isQuery && !listeners.isEmpty()) {
+            receivedQuery = new ReceivedQuery(packet, listeners.size());
+            pendingRequests.receivedQueries().put(packet.queryId(), receivedQuery);
+            receivedQuery.expireOn(channelHandlerContext.channel());
+        }
         // Iterate through each packet receiver registered for the packet type
-        for (var listener : this.getReceivers(packet)) {
+        for (var listener : listeners) {
             calledCount++; // Increment the count of called packet receivers
             // Set the query ID of the packet receiver if the packet contains a query ID
-            if (packet.queryId() != null) {
+            if (packet.queryId() != Packet.NO_QUERY_ID) {
                 listener.queryId = packet.queryId();
             }
-            // Call the receivePacket method of the packet receiver
-            listener.receivePacket(packet, networkChannel);
+            listener.receivedQuery = receivedQuery;
+            // Call the receivePacket method of the packet receiver with its execution mode
+            this.execute(listener, packet, networkChannel, channelHandlerContext.channel(), receivedQuery);
         }
         return calledCount; // Return the number of packet receivers that were called
     }
+
+    /**
+     * Passes the packets collected during the current read cycle of a channel to their batch packet receivers.
+     * Called when netty signals that the read cycle of the channel is complete.
+     *
+     * @param channelHandlerContext The channel handler context whose read cycle completed.
+     */
+    @SuppressWarnings("unchecked")
+    public void flushBatches(
+            @NonNull ChannelHandlerContext channelHandlerContext
+    ) {
+        var channel = channelHandlerContext.channel();
+        // Nothing was collected on this channel yet
+        if (!channel.hasAttr(PENDING_BATCHES)) {
+            return;
+        }
+        var pendingBatches = channel.attr(PENDING_BATCHES).get();
+        if (pendingBatches == null || pendingBatches.isEmpty()) {
+            return;
+        }
+        for (var entry : pendingBatches.entrySet()) {
+            BatchPacketReceiver<Packet> batchReceiver;
+            try {
+                batchReceiver = (BatchPacketReceiver<Packet>) entry.getKey().receiverClass().newInstance();
+            } catch (InstantiationException | IllegalAccessException | ClassCastException exception) {
+                NettyLib.log(Level.SEVERE, this.getClass(), exception.getMessage());
+                continue;
+            }
+            var packets = entry.getValue();
+            var networkChannel = entry.getKey().networkChannel();
+            this.execute(batchReceiver.getClass(), channel, () -> batchReceiver.receivePackets(packets, networkChannel));
+        }
+        // The lists were handed over to the receivers, the next read cycle starts with fresh ones
+        pendingBatches.clear();
+    }
+
+    /**
+     * Retrieves the batches of a channel which are collected until the read cycle completes.
+     *
+     * @param channel The netty channel.
+     * @return The pending batches, only accessed from the event loop of the channel.
+     */
+    private Map<BatchKey, List<Packet>> pendingBatches(
+            @NonNull Channel channel
+    ) {
+        var attribute = channel.attr(PENDING_BATCHES);
+        var pendingBatches = attribute.get();
+        if (pendingBatches == null) {
+            pendingBatches = new LinkedHashMap<>();
+            attribute.set(pendingBatches);
+        }
+        return pendingBatches;
+    }
+
+    /**
+     * Calls a packet receiver on the event loop or hands it over to the serial queue of the channel.
+     *
+     * @param listener       The packet receiver to call.
+     * @param packet         The packet to pass to the receiver.
+     * @param networkChannel The network channel associated with the packet.
+     * @param channel        The netty channel the packet was read from.
+     * @param receivedQuery  The query of the peer the packet belongs to, or null if it is no query.
+     * @param <P>            The type parameter representing the packet.
+     */
+    private <P extends Packet> void execute(
+            @NonNull PacketReceiver<P> listener,
+            @NonNull P packet,
+            @NonNull NetworkChannel networkChannel,
+            @NonNull Channel channel,
+            @Nullable ReceivedQuery receivedQuery
+    ) {
+        if (receivedQuery == null) {
+            this.execute(listener.getClass(), channel, () -> listener.receivePacket(packet, networkChannel));
+            return;
+        }
+        this.execute(listener.getClass(), channel, () -> {
+            try {
+                // The query may have been cancelled or expired while the call was queued
+                if (receivedQuery.abandoned()) {
+                    NettyLib.debug(Level.INFO, this.getClass(), "Skipping abandoned query: " + packet.queryId() + "/" + packet.getClass().getSimpleName());
+                    return;
+                }
+                listener.receivePacket(packet, networkChannel);
+            } finally {
+                if (receivedQuery.receiverFinished()) {
+                    receivedQuery.unregister(PendingRequests.of(channel));
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a receiver call on the event loop or hands it over to the serial queue of the channel,
+     * depending on the execution mode of the receiver class.
+     *
+     * @param receiverClass The class of the receiver.
+     * @param channel       The netty channel the packets were read from.
+     * @param call          The receiver call.
+     */
+    private void execute(
+            @NonNull Class<?> receiverClass,
+            @NonNull Channel channel,
+            @NonNull Runnable call
+    ) {
+        var executionMode = this.executionMode(receiverClass);
+        if (executionMode == ExecutionMode.EVENT_LOOP) {
+            call.run();
+            return;
+        }
+        // Packets of one channel are queued so receivers still see them in the order they were read
+        this.serialExecutor(channel, executionMode).execute(call);
+    }
+
+    /**
+     * Resolves the execution mode of a packet receiver class.
+     *
+     * @param receiverClass The class of the packet receiver.
+     * @return The declared execution mode, or the default execution mode of this manager.
+     */
+    public ExecutionMode executionMode(
+            @NonNull Class<?> receiverClass
+    ) {
+        var executionMode = DECLARED_EXECUTION_MODES.get(receiverClass);
+        return executionMode == null ? this.defaultExecutionMode : executionMode;
+    }
+
+    /**
+     * Retrieves the serial queue of a channel for the given execution mode, creating it on first use.
+     *
+     * @param channel       The netty channel.
+     * @param executionMode The execution mode, must not be {@link ExecutionMode#EVENT_LOOP}.
+     * @return The serial queue of the channel.
+     */
+    private SerialExecutor serialExecutor(
+            @NonNull Channel channel,
+            @NonNull ExecutionMode executionMode
+    ) {
+        var attribute = channel.attr(executionMode == ExecutionMode.VIRTUAL_THREAD ? VIRTUAL_THREAD_QUEUE : SHARED_POOL_QUEUE);
+        var serialExecutor = attribute.get();
+        if (serialExecutor == null) {
+            var created = new SerialExecutor(executionMode.executor());
+            serialExecutor = attribute.setIfAbsent(created);
+            if (serialExecutor == null) {
+                serialExecutor = created;
+            }
+        }
+        return serialExecutor;
+    }
+
+    /**
+     * Creates a new dispatch table which resolves the receivers of a packet class once
+     * by walking its superclasses and interfaces.
+     *
+     * @return The dispatch table.
+     */
+    private ClassValue<DispatchEntry> createDispatchTable() {
+        return new ClassValue<>() {
+            @Override
+            protected DispatchEntry computeValue(Class<?> type) {
+                return new DispatchEntry(
+                        resolveReceivers(PacketReceiverManager.this.packetReceivers, type),
+                        resolveReceivers(PacketReceiverManager.this.batchPacketReceivers, type)
+                );
+            }
+        };
+    }
+
+    /**
+     * Collects the receivers registered for the given class, its superclasses and its interfaces.
+     * Receivers of the most specific type come first and every receiver is contained once.
+     *
+     * @param registrations The registered receivers by packet type.
+     * @param type          The concrete packet class.
+     * @param <R>           The type of the registered receivers.
+     * @return An immutable list of the receiver classes.
+     */
+    private static <R> List<R> resolveReceivers(
+            @NonNull Map<Class<?>, List<R>> registrations,
+            @NonNull Class<?> type
+    ) {
+        if (registrations.isEmpty()) {
+            return List.of();
+        }
+        Set<R> receivers = new LinkedHashSet<>();
+        for (var current : PacketTypes.hierarchy(type)) {
+            var registered = registrations.get(current);
+            if (registered != null) {
+                receivers.addAll(registered);
+            }
+        }
+        return List.copyOf(receivers);
+    }
+
+    private record DispatchEntry(
+            List<Class<? extends PacketReceiver<?>>> receivers,
+            List<Class<? extends BatchPacketReceiver<?>>> batchReceivers
+    ) {
+    }
+
+    private record BatchKey(
+            Class<? extends BatchPacketReceiver<?>> receiverClass,
+            NetworkChannel networkChannel
+    ) {
+    }
 }
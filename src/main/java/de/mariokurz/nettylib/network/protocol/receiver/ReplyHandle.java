@@ -0,0 +1,157 @@
+package de.mariokurz.nettylib.network.protocol.receiver;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 18:25 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.query.ReceivedQuery;
+import lombok.Getter;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * A handle to answer a query after its packet receiver returned, from any thread.
+ * It captures the network channel and the query ID, so the receiver does not have to block the event loop
+ * while it waits for databases or other services.
+ */
+public class ReplyHandle {
+
+    @Getter
+    private final long queryId;
+    @Getter
+    private final NetworkChannel networkChannel;
+    private final ReceivedQuery receivedQuery;
+    // A query is answered at most once
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    ReplyHandle(
+            long queryId,
+            @NonNull NetworkChannel networkChannel,
+            @Nullable ReceivedQuery receivedQuery
+    ) {
+        this.queryId = queryId;
+        this.networkChannel = networkChannel;
+        this.receivedQuery = receivedQuery;
+        // Keep the query cancellable until the handle is done
+        if (receivedQuery != null) {
+            receivedQuery.receiverStarted();
+        }
+    }
+
+    /**
+     * Checks whether the requester still waits for the response.
+     *
+     * @return True if the requester cancelled the query or its deadline has passed.
+     */
+    public boolean abandoned() {
+        return this.receivedQuery != null && this.receivedQuery.abandoned();
+    }
+
+    /**
+     * Checks whether the handle was already replied to or released.
+     *
+     * @return True if the handle is done.
+     */
+    public boolean done() {
+        return this.done.get();
+    }
+
+    /**
+     * Sends the response to the query.
+     *
+     * @param packet The response packet.
+     * @return True if the response was sent, false if the handle was already done or the query was abandoned.
+     */
+    public boolean reply(
+            @NonNull Packet packet
+    ) {
+        if (!this.done.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            if (this.queryId == Packet.NO_QUERY_ID) {
+                NettyLib.log(Level.WARNING, this.getClass(), "Cannot reply to a packet which is no query: " + packet.getClass().getSimpleName());
+                return false;
+            }
+            if (this.abandoned()) {
+                NettyLib.debug(Level.INFO, this.getClass(), "Dropping response to abandoned query: " + this.queryId); // Nobody reads the response anymore, don't send it.
+                return false;
+            }
+            packet.queryId(this.queryId);
+            this.networkChannel.sendPacket(packet);
+            return true;
+        } finally {
+            this.finish();
+        }
+    }
+
+    /**
+     * Sends the response to the query once the given stage completes.
+     * If the stage fails or completes with null, no response is sent and the requester runs into its timeout.
+     *
+     * @param responseStage The stage which completes with the response packet.
+     */
+    public void replyWith(
+            @NonNull CompletionStage<? extends Packet> responseStage
+    ) {
+        responseStage.whenComplete((packet, throwable) -> {
+            if (throwable != null) {
+                NettyLib.log(Level.WARNING, this.getClass(), "Query " + this.queryId + " failed: " + throwable.getMessage());
+                this.release();
+            } else if (packet == null) {
+                this.release();
+            } else {
+                this.reply(packet);
+            }
+        });
+    }
+
+    /**
+     * Gives up the handle without sending a response.
+     *
+     * @return True if the handle was not done yet.
+     */
+    public boolean release() {
+        if (!this.done.compareAndSet(false, true)) {
+            return false;
+        }
+        this.finish();
+        return true;
+    }
+
+    /**
+     * Unregisters the query once no receiver call or handle answers it anymore.
+     */
+    private void finish() {
+        if (this.receivedQuery != null && this.receivedQuery.receiverFinished()) {
+            this.receivedQuery.unregister(this.networkChannel.pendingRequests());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package de.mariokurz.nettylib.network.protocol.routing;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 21:08 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import lombok.NonNull;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The aggregated delivery result of a multicast routing.
+ *
+ * @param result    {@link RoutingResult#SUCCESS} if the packet was forwarded to at least one receiver.
+ * @param receivers The unique IDs of the network channels the packet was forwarded to.
+ */
+public record MulticastResult(
+        @NonNull RoutingResult result,
+        @NonNull List<UUID> receivers
+) {
+
+    public static final MulticastResult NO_RESULT = new MulticastResult(RoutingResult.NO_RESULT, List.of());
+
+}
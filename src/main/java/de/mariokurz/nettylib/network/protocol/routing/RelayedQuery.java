@@ -0,0 +1,43 @@
+package de.mariokurz.nettylib.network.protocol.routing;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 21:43 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import io.netty5.util.Timeout;
+import lombok.NonNull;
+
+/**
+ * A routed query the server forwarded to its receiver, kept until the receiver answers.
+ *
+ * @param requester The network channel of the client which sent the query.
+ * @param queryId   The query ID on the connection of the requester.
+ * @param timeout   Drops the relay once the deadline of the query passed.
+ */
+public record RelayedQuery(
+        @NonNull NetworkChannel requester,
+        long queryId,
+        @NonNull Timeout timeout
+) {
+}
@@ -0,0 +1,46 @@
+package de.mariokurz.nettylib.network.protocol.routing;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 18:07 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import io.netty5.buffer.Buffer;
+import lombok.NonNull;
+
+/**
+ * An encoded packet together with the receivers it is addressed to. The receivers are written
+ * in front of the encoded packet, so the server forwards the packet without decoding it.
+ *
+ * @param target      The receivers of the packet.
+ * @param queryId     The ID the server answers with a {@link MulticastResultPacket} under,
+ *                    or {@link de.mariokurz.nettylib.network.protocol.Packet#NO_QUERY_ID} if no result is requested.
+ * @param packetTypes The type IDs of the packet, see {@link de.mariokurz.nettylib.network.protocol.interest.PacketInterests#typeIds(Class)}.
+ * @param body        The encoded packet.
+ */
+public record RoutedFrame(
+        @NonNull RoutingTarget target,
+        long queryId,
+        int @NonNull [] packetTypes,
+        @NonNull Buffer body
+) {
+}
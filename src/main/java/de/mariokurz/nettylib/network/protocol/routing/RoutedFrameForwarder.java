@@ -0,0 +1,48 @@
+package de.mariokurz.nettylib.network.protocol.routing;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 22:47 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.Channel;
+import lombok.NonNull;
+
+/**
+ * Forwards routed frames on the server, without decoding them.
+ */
+@FunctionalInterface
+public interface RoutedFrameForwarder {
+
+    /**
+     * Forwards the encoded packet of a routed frame to its receivers.
+     *
+     * @param source      The netty channel the frame was read from.
+     * @param target      The receivers of the frame.
+     * @param queryId     The ID to answer the delivery result under, or no query ID if no result is requested.
+     * @param packetTypes The type IDs of the encoded packet, so receivers without interest in it are skipped.
+     * @param body        The encoded packet, the forwarder has to write or close it.
+     */
+    void forwardRoutedFrame(@NonNull Channel source, @NonNull RoutingTarget target, long queryId, int @NonNull [] packetTypes, @NonNull Buffer body);
+
+}
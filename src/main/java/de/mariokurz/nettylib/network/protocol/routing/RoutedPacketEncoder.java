@@ -0,0 +1,56 @@
+package de.mariokurz.nettylib.network.protocol.routing;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 17:02 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.codec.EncodedPacket;
+import de.mariokurz.nettylib.network.protocol.interest.PacketInterests;
+import io.netty5.channel.ChannelHandlerAdapter;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.util.concurrent.Future;
+
+/**
+ * Writes fire-and-forget routing packets of a client as routed frames, so the server
+ * reads their receiver from the frame header and forwards them without decoding.
+ * Routings which are confirmed or answered keep going through the server handler.
+ */
+public class RoutedPacketEncoder extends ChannelHandlerAdapter {
+
+    @Override
+    public Future<Void> write(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof RoutingPacket routingPacket
+                && routingPacket.receiverIdentity() != null
+                && !routingPacket.ackRequested()
+                && !routingPacket.routedQuery()) {
+            // Encode the packet with the codec of the channel, only the frame header is added in front of it
+            var body = EncodedPacket.encodeBuffer(routingPacket, ctx.channel());
+            if (body != null) {
+                return ctx.write(new RoutedFrame(RoutingTarget.identity(routingPacket.receiverIdentity().uniqueId()), Packet.NO_QUERY_ID,
+                        PacketInterests.typeIds(routingPacket.getClass()), body));
+            }
+        }
+        return ctx.write(msg);
+    }
+}
@@ -37,4 +37,8 @@ public class RoutingPacket extends Packet
         implements Serializable {
     @PacketObjectSerial
     private ChannelIdentity receiverIdentity;
+    // Set for routed queries, the server relays the response of the receiver instead of confirming the routing
+    private boolean routedQuery;
+    // Set if the sender waits for a RoutingResultPacket, packets sent with plain sendPacket are routed without one
+    private boolean ackRequested;
 }
@@ -24,27 +24,36 @@ package de.mariokurz.nettylib.network.protocol.routing;
  * SOFTWARE.
  */
 
-import de.golgolex.quala.scheduler.Scheduler;
-import de.golgolex.quala.utils.data.Value;
+import com.github.golgolex.eventum.EventManager;
 import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.event.NetworkChannelPacketSendEvent;
 import de.mariokurz.nettylib.network.ChannelIdentity;
 import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.channel.PendingRequests;
 import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.codec.EncodedPacket;
+import de.mariokurz.nettylib.network.protocol.codec.FrameEncoder;
+import de.mariokurz.nettylib.network.protocol.interest.PacketInterests;
+import de.mariokurz.nettylib.utils.NettyUtils;
+import io.netty5.channel.Channel;
 import lombok.NonNull;
 
-import java.util.Map;
-import java.util.UUID;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 public class RoutingPacketManager {
 
-    private static final Map<UUID, Value<RoutingResult>> waitingHandlers = new ConcurrentHashMap<>(0);
-    private final Scheduler executorService = new Scheduler(1);
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
 
     /**
      * Sends a packet to a specified receiver and waits for a routing result asynchronously.
+     * The future is completed with {@link RoutingResult#NO_RESULT} if the server does not
+     * answer within {@link #DEFAULT_TIMEOUT_MILLIS}, or exceptionally with a {@link ClosedChannelException}
+     * if the connection goes inactive first.
      *
      * @param packet              The packet to send.
      * @param senderNetworkChannel The network channel sending the packet.
@@ -62,36 +71,42 @@ public class RoutingPacketManager {
             return null;
         }
 
-        // Generate a unique query ID for the packet
-        var queryUniqueId = UUID.randomUUID();
-        packetObj.queryId(queryUniqueId);
+        // Generate a query ID which is unique on the connection of the sending channel
+        var pendingRequests = PendingRequests.of(senderNetworkChannel.channel());
+        var queryId = pendingRequests.nextRequestId();
+        packetObj.queryId(queryId);
         packetObj.receiverIdentity(receiverIdentity);
+        // Only routings somebody waits for are confirmed by the server
+        packetObj.ackRequested(true);
 
-        // Create a CompletableFuture to hold the result of the routing
+        // Create a CompletableFuture which is completed by dispatch once the routing result arrives
         var resultFuture = new CompletableFuture<RoutingResult>();
-        // Put a placeholder value into the waiting handlers map for the query ID
-        waitingHandlers.put(queryUniqueId, new Value<>(RoutingResult.IDLE));
-        // Send the packet asynchronously
-        executorService.schedule(() -> senderNetworkChannel.sendPacket(packetObj));
-
-        // Schedule a task to handle the result after a timeout
-        executorService.schedule(() -> {
-            // Retrieve the result from the waiting handlers map
-            Value<RoutingResult> result = waitingHandlers.get(queryUniqueId);
-            // Remove the entry from the waiting handlers map
-            waitingHandlers.remove(queryUniqueId);
-            // Complete the CompletableFuture with the retrieved result or NO_RESULT if none found
-            if (result == null || result.value() == null) {
-                resultFuture.complete(RoutingResult.NO_RESULT);
-            } else {
-                resultFuture.complete(result.value());
-            }
-        }, 5000);
+        pendingRequests.routings().put(queryId, resultFuture);
+        senderNetworkChannel.inFlightRequests().incrementAndGet();
+
+        // Complete the future with NO_RESULT if the server does not answer in time
+        var timeoutTask = NettyUtils.timeoutTimer().newTimeout(timer -> resultFuture.complete(RoutingResult.NO_RESULT),
+                DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        // However the future is completed, the routing is no longer waiting
+        resultFuture.whenComplete((result, throwable) -> {
+            pendingRequests.routings().remove(queryId);
+            senderNetworkChannel.inFlightRequests().decrementAndGet();
+            timeoutTask.cancel();
+        });
+
+        // Fail right away if the connection is already gone, there is nobody left to route the packet
+        if (pendingRequests.failIfClosed(resultFuture)) {
+            return resultFuture;
+        }
+
+        // Send the packet, the channel hands it over to its event loop itself
+        senderNetworkChannel.sendPacket(packetObj);
         return resultFuture;
     }
 
     /**
      * Sends a packet to a specified receiver and waits for a routing result synchronously.
+     * The calling thread parks until the result arrives, so this must not be called from an event loop.
      *
      * @param packet              The packet to send.
      * @param senderNetworkChannel The network channel sending the packet.
@@ -102,69 +117,287 @@ public class RoutingPacketManager {
             @NonNull Object packet,
             @NonNull NetworkChannel senderNetworkChannel,
             @NonNull ChannelIdentity receiverIdentity
+    ) {
+        var resultFuture = this.sendRoutedPacketFuture(packet, senderNetworkChannel, receiverIdentity);
+        if (resultFuture == null) {
+            return null;
+        }
+        try {
+            // Park until the result arrives or the timeout completes the future with NO_RESULT
+            return resultFuture.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            resultFuture.cancel(false);
+            return RoutingResult.NO_RESULT;
+        } catch (ExecutionException exception) {
+            if (exception.getCause() instanceof ClosedChannelException) {
+                return RoutingResult.FAILED_NO_CHANNEL;
+            }
+            NettyLib.log(Level.SEVERE, this.getClass(), "Routing failed: " + exception.getCause());
+            return RoutingResult.FAILED_UNKNOWN;
+        }
+    }
+
+    /**
+     * Sends a packet to many receivers through the server, without waiting for a result.
+     * The packet is encoded once, the server forwards the same bytes to every receiver without decoding them.
+     * The sender never receives its own multicast.
+     *
+     * @param packet               The packet to send.
+     * @param senderNetworkChannel The network channel sending the packet.
+     * @param target               The receivers of the packet.
+     * @return True if the packet was written.
+     */
+    public boolean sendMulticastPacket(
+            @NonNull Object packet,
+            @NonNull NetworkChannel senderNetworkChannel,
+            @NonNull RoutingTarget target
+    ) {
+        return this.writeRoutedFrame(packet, senderNetworkChannel, target, Packet.NO_QUERY_ID);
+    }
+
+    /**
+     * Sends a packet to many receivers through the server and waits for the aggregated delivery result asynchronously.
+     * The future is completed with {@link MulticastResult#NO_RESULT} if the server does not
+     * answer within {@link #DEFAULT_TIMEOUT_MILLIS}, or exceptionally with a {@link ClosedChannelException}
+     * if the connection goes inactive first.
+     *
+     * @param packet               The packet to send.
+     * @param senderNetworkChannel The network channel sending the packet.
+     * @param target               The receivers of the packet.
+     * @return A CompletableFuture containing the delivery result, or null if the packet could not be encoded.
+     */
+    public CompletableFuture<MulticastResult> sendMulticastPacketFuture(
+            @NonNull Object packet,
+            @NonNull NetworkChannel senderNetworkChannel,
+            @NonNull RoutingTarget target
+    ) {
+        var pendingRequests = PendingRequests.of(senderNetworkChannel.channel());
+        var queryId = pendingRequests.nextRequestId();
+
+        // Create a CompletableFuture which is completed by dispatch once the delivery result arrives
+        var resultFuture = new CompletableFuture<MulticastResult>();
+        pendingRequests.multicasts().put(queryId, resultFuture);
+        senderNetworkChannel.inFlightRequests().incrementAndGet();
+        var timeoutTask = NettyUtils.timeoutTimer().newTimeout(timer -> resultFuture.complete(MulticastResult.NO_RESULT),
+                DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        resultFuture.whenComplete((result, throwable) -> {
+            pendingRequests.multicasts().remove(queryId);
+            senderNetworkChannel.inFlightRequests().decrementAndGet();
+            timeoutTask.cancel();
+        });
+
+        if (pendingRequests.failIfClosed(resultFuture)) {
+            return resultFuture;
+        }
+        if (!this.writeRoutedFrame(packet, senderNetworkChannel, target, queryId)) {
+            resultFuture.cancel(false);
+            return null;
+        }
+        return resultFuture;
+    }
+
+    /**
+     * Encodes a packet with the codec of the sending channel and writes it as routed frame.
+     *
+     * @param packet               The packet to send.
+     * @param senderNetworkChannel The network channel sending the packet.
+     * @param target               The receivers of the packet.
+     * @param queryId              The ID the server answers the delivery result under, or no query ID.
+     * @return True if the packet was written.
+     */
+    private boolean writeRoutedFrame(
+            @NonNull Object packet,
+            @NonNull NetworkChannel senderNetworkChannel,
+            @NonNull RoutingTarget target,
+            long queryId
+    ) {
+        var channel = senderNetworkChannel.channel();
+        // Routed frames need the frame header, codecs without framing can't carry them
+        if (channel.pipeline().get(FrameEncoder.class) == null) {
+            NettyLib.log(Level.INFO, this.getClass(), "Multicast routing is not supported by the codec of " + senderNetworkChannel.channelIdentity());
+            return false;
+        }
+        var body = EncodedPacket.encodeBuffer(packet, channel);
+        if (body == null) {
+            return false;
+        }
+        EventManager.call(new NetworkChannelPacketSendEvent(senderNetworkChannel, packet));
+        channel.writeAndFlush(new RoutedFrame(target, queryId, PacketInterests.typeIds(packet.getClass()), body));
+        return true;
+    }
+
+    /**
+     * Sends a query to a specified receiver through the server and waits for its response asynchronously.
+     * The server relays the query and the response, the future is completed like the one of a direct query.
+     * It completes with null as well if the server does not know the receiver.
+     *
+     * @param packet               The routing packet to send as query.
+     * @param senderNetworkChannel The network channel sending the packet.
+     * @param receiverIdentity     The identity of the receiver.
+     * @param timeout              The time to wait for the response.
+     * @param timeUnit             The unit of the timeout.
+     * @return A CompletableFuture containing the response packet, or null if the packet is not valid.
+     */
+    public <T extends Packet> CompletableFuture<T> sendRoutedQueryFuture(
+            @NonNull Object packet,
+            @NonNull NetworkChannel senderNetworkChannel,
+            @NonNull ChannelIdentity receiverIdentity,
+            long timeout,
+            @NonNull TimeUnit timeUnit
     ) {
         // Check if the packet is a valid RoutingPacket instance
         if (!(packet instanceof RoutingPacket packetObj)) {
             NettyLib.log(Level.INFO, this.getClass(), "Packet Object is not a valid Packet instance: " + packet.getClass().getName());
             return null;
         }
-
-        // Generate a unique query ID for the packet
-        var queryUniqueId = UUID.randomUUID();
-        packetObj.queryId(queryUniqueId);
         packetObj.receiverIdentity(receiverIdentity);
+        packetObj.routedQuery(true);
+        // Toward the server it is a plain query, its response arrives under our own query ID
+        return senderNetworkChannel.sendQueryFuture(packetObj, timeout, timeUnit);
+    }
 
-        // Put a placeholder value into the waiting handlers map for the query ID
-        waitingHandlers.put(queryUniqueId, new Value<>(RoutingResult.IDLE));
-        // Send the packet asynchronously
-        executorService.schedule(() -> senderNetworkChannel.sendPacket(packetObj));
-
-        // Wait for the result to be updated in the waiting handlers map
-        var i = 0;
-        while (waitingHandlers.get(queryUniqueId).value() == RoutingResult.IDLE && i++ < 5000) {
-            try {
-                Thread.sleep(0, 500000);
-            } catch (InterruptedException ignored) {
-            }
+    /**
+     * Sends a query to a specified receiver through the server and waits for its response synchronously.
+     * The calling thread parks until the response arrives, so this must not be called from an event loop.
+     *
+     * @param packet               The routing packet to send as query.
+     * @param senderNetworkChannel The network channel sending the packet.
+     * @param receiverIdentity     The identity of the receiver.
+     * @param timeout              The time to wait for the response.
+     * @param timeUnit             The unit of the timeout.
+     * @return The response packet, or null if the receiver is unknown or does not answer in time.
+     */
+    public <T extends Packet> T sendRoutedQuery(
+            @NonNull Object packet,
+            @NonNull NetworkChannel senderNetworkChannel,
+            @NonNull ChannelIdentity receiverIdentity,
+            long timeout,
+            @NonNull TimeUnit timeUnit
+    ) {
+        if (!(packet instanceof RoutingPacket packetObj)) {
+            NettyLib.log(Level.INFO, this.getClass(), "Packet Object is not a valid Packet instance: " + packet.getClass().getName());
+            return null;
         }
+        packetObj.receiverIdentity(receiverIdentity);
+        packetObj.routedQuery(true);
+        return senderNetworkChannel.sendQuery(packetObj, timeout, timeUnit);
+    }
 
-        // If the timeout is reached, set the result to NO_RESULT
-        if (i >= 4999) {
-            waitingHandlers.get(queryUniqueId).value(RoutingResult.NO_RESULT);
+    /**
+     * Forwards a routed query to its receiver on the server. The query is registered under a new ID
+     * on the connection of the receiver, which only maps back to the requester until the response arrives
+     * or the deadline of the query passes.
+     *
+     * @param routingPacket The routed query as read from the requester.
+     * @param requester     The network channel of the requester.
+     * @param receiver      The network channel of the receiver.
+     */
+    public void relayQuery(
+            @NonNull RoutingPacket routingPacket,
+            @NonNull NetworkChannel requester,
+            @NonNull NetworkChannel receiver
+    ) {
+        var requesterQueryId = routingPacket.queryId();
+        var pendingRequests = receiver.pendingRequests();
+        var queryId = pendingRequests.nextRequestId();
+        // Forget the relay once the requester stopped waiting, a late response is dropped then
+        var budget = routingPacket.deadline() == Packet.NO_DEADLINE ? DEFAULT_TIMEOUT_MILLIS : routingPacket.deadlineBudget();
+        var timeout = NettyUtils.timeoutTimer().newTimeout(timer -> pendingRequests.relayedQueries().remove(queryId),
+                budget, TimeUnit.MILLISECONDS);
+        pendingRequests.relayedQueries().put(queryId, new RelayedQuery(requester, requesterQueryId, timeout));
+        // The connection of the receiver may have closed in between, failAll won't see the relay then
+        if (pendingRequests.closed() && pendingRequests.relayedQueries().remove(queryId) != null) {
+            timeout.cancel();
+            failRelayedQuery(requester, requesterQueryId, RoutingResult.FAILED_NO_CHANNEL);
+            return;
         }
+        NettyLib.debug(Level.INFO, this.getClass(), "Relaying Query: " + requesterQueryId + " -> " + queryId + "/" + routingPacket.getClass().getSimpleName());
+        routingPacket.queryId(queryId);
+        receiver.sendPacket(routingPacket);
+    }
 
-        // Retrieve the result from the waiting handlers map
-        var result = waitingHandlers.get(queryUniqueId);
-        // Remove the entry from the waiting handlers map
-        waitingHandlers.remove(queryUniqueId);
-        // Return the retrieved result
-        if (result == null || result.value() == null) {
-            return null;
+    /**
+     * Passes the response to a relayed query on to its requester.
+     *
+     * @param packet  The packet read from the receiver of a routed query.
+     * @param channel The netty channel the packet was read from.
+     * @return True if the packet was the response to a relayed query and has been passed on.
+     */
+    public boolean relayResponse(
+            @NonNull Packet packet,
+            @NonNull Channel channel
+    ) {
+        var pendingRequests = PendingRequests.of(channel);
+        if (!pendingRequests.ownsRequestId(packet.queryId())) {
+            return false;
+        }
+        var relayedQuery = pendingRequests.relayedQueries().remove(packet.queryId());
+        if (relayedQuery == null) {
+            return false;
         }
-        return result.value();
+        relayedQuery.timeout().cancel();
+        // Back on the connection of the requester the response carries the ID of its query
+        packet.queryId(relayedQuery.queryId());
+        relayedQuery.requester().sendPacket(packet);
+        return true;
+    }
+
+    /**
+     * Tells the requester of a routed query that it could not be routed, so its query completes with null.
+     *
+     * @param requester The network channel of the requester.
+     * @param queryId   The query ID on the connection of the requester.
+     * @param result    The reason the query could not be routed.
+     */
+    public static void failRelayedQuery(
+            @NonNull NetworkChannel requester,
+            long queryId,
+            @NonNull RoutingResult result
+    ) {
+        var routingResultPacket = new RoutingResultPacket();
+        routingResultPacket.queryId(queryId);
+        routingResultPacket.result(result);
+        requester.sendPacket(routingResultPacket);
     }
 
     /**
      * Dispatches a packet to handle the routing result.
      *
-     * @param packet The packet to dispatch.
+     * @param packet  The packet to dispatch.
+     * @param channel The netty channel the packet was read from.
      */
     public void dispatch(
-            @NonNull Packet packet
+            @NonNull Packet packet,
+            @NonNull Channel channel
     ) {
         // Check if the packet contains a query ID and if there's a waiting handler for it
         NettyLib.debug(Level.INFO, this.getClass(), "Checking Packet: " + packet.queryId() + "/" + packet.getClass().getSimpleName());
-        if (packet instanceof RoutingResultPacket routingResultPacket
-                && packet.queryId() != null
-                && waitingHandlers.containsKey(packet.queryId())) {
+        var pendingRequests = PendingRequests.of(channel);
+        if (packet instanceof MulticastResultPacket multicastResultPacket && pendingRequests.ownsRequestId(packet.queryId())) {
+            var waitingMulticast = pendingRequests.multicasts().get(packet.queryId());
+            if (waitingMulticast != null) {
+                var receivers = multicastResultPacket.receivers();
+                waitingMulticast.complete(new MulticastResult(multicastResultPacket.result(), receivers == null ? List.of() : receivers));
+            }
+            return;
+        }
+        if (!(packet instanceof RoutingResultPacket routingResultPacket) || !pendingRequests.ownsRequestId(packet.queryId())) {
+            return;
+        }
+        var waitingHandler = pendingRequests.routings().get(packet.queryId());
+        if (waitingHandler != null) {
             // Log debug information
             NettyLib.debug(Level.INFO, this.getClass(), "Processing Query: " + packet.queryId() + "/" + packet.getClass().getSimpleName());
-            // Retrieve the waiting handler for the query ID
-            var waitingHandler = waitingHandlers.get(packet.queryId());
-            // Log debug information
-            NettyLib.debug(Level.INFO, this.getClass(), "Setting Value of Query to: " + packet.queryId() + "/" + packet.getClass().getSimpleName());
-            // Set the value of the waiting handler to the received routing result
-            waitingHandler.value(routingResultPacket.result());
+            // Complete the waiting future with the received routing result, this also removes it and cancels its timeout
+            waitingHandler.complete(routingResultPacket.result());
+            return;
+        }
+        // A routed query the server could not deliver, nobody is going to answer it
+        var waitingQuery = pendingRequests.queries().get(packet.queryId());
+        if (waitingQuery != null) {
+            NettyLib.log(Level.INFO, this.getClass(), "Routed query " + packet.queryId() + " failed: " + routingResultPacket.result());
+            waitingQuery.complete(null);
         }
     }
 
@@ -0,0 +1,181 @@
+package de.mariokurz.nettylib.network.protocol.routing;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 22:40 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.ChannelIdentity;
+import io.netty5.buffer.Buffer;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The receivers of a routed frame. It is written into the frame header, so the server
+ * resolves the receivers without decoding the packet.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class RoutingTarget {
+
+    private final Type type;
+    // The unique IDs of the receivers, empty for namespaces and groups
+    private final List<UUID> uniqueIds;
+    // The namespace or group name, null for identities
+    private final String name;
+
+    /**
+     * Targets the network channel with the given unique ID.
+     *
+     * @param uniqueId The unique ID of the receiver.
+     * @return The routing target.
+     */
+    public static RoutingTarget identity(
+            @NonNull UUID uniqueId
+    ) {
+        return new RoutingTarget(Type.IDENTITIES, List.of(uniqueId), null);
+    }
+
+    /**
+     * Targets the network channels of the given identities.
+     *
+     * @param channelIdentities The identities of the receivers.
+     * @return The routing target.
+     */
+    public static RoutingTarget identities(
+            @NonNull Collection<ChannelIdentity> channelIdentities
+    ) {
+        return new RoutingTarget(Type.IDENTITIES, channelIdentities.stream().map(ChannelIdentity::uniqueId).distinct().toList(), null);
+    }
+
+    /**
+     * Targets every network channel of a namespace, the namespace is matched ignoring case.
+     *
+     * @param namespace The namespace of the receivers.
+     * @return The routing target.
+     */
+    public static RoutingTarget namespace(
+            @NonNull String namespace
+    ) {
+        return new RoutingTarget(Type.NAMESPACE, List.of(), namespace);
+    }
+
+    /**
+     * Targets every network channel which joined a routing group on the server.
+     *
+     * @param group The name of the routing group.
+     * @return The routing target.
+     */
+    public static RoutingTarget group(
+            @NonNull String group
+    ) {
+        return new RoutingTarget(Type.GROUP, List.of(), group);
+    }
+
+    /**
+     * Retrieves the number of bytes the target takes in a frame header.
+     *
+     * @return The encoded length.
+     */
+    public int encodedLength() {
+        if (this.type == Type.IDENTITIES) {
+            return 1 + 4 + this.uniqueIds.size() * 16;
+        }
+        return 1 + 4 + this.name.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Writes the target into a frame header.
+     *
+     * @param buffer The buffer of the frame header.
+     */
+    public void write(
+            @NonNull Buffer buffer
+    ) {
+        buffer.writeByte((byte) this.type.ordinal());
+        if (this.type == Type.IDENTITIES) {
+            buffer.writeInt(this.uniqueIds.size());
+            for (var uniqueId : this.uniqueIds) {
+                buffer.writeLong(uniqueId.getMostSignificantBits());
+                buffer.writeLong(uniqueId.getLeastSignificantBits());
+            }
+            return;
+        }
+        var bytes = this.name.getBytes(StandardCharsets.UTF_8);
+        buffer.writeInt(bytes.length);
+        buffer.writeBytes(bytes);
+    }
+
+    /**
+     * Reads a target from a frame header.
+     *
+     * @param buffer The buffer of the frame, positioned at the target.
+     * @return The routing target, or null if the header is malformed.
+     */
+    public static RoutingTarget read(
+            @NonNull Buffer buffer
+    ) {
+        var typeIndex = buffer.readByte();
+        if (typeIndex < 0 || typeIndex >= Type.values().length || buffer.readableBytes() < 4) {
+            return null;
+        }
+        var type = Type.values()[typeIndex];
+        var length = buffer.readInt();
+        if (type == Type.IDENTITIES) {
+            if (length < 0 || buffer.readableBytes() < length * 16L) {
+                return null;
+            }
+            // An identity listed twice must not receive the packet twice
+            Set<UUID> uniqueIds = new LinkedHashSet<>();
+            for (var i = 0; i < length; i++) {
+                uniqueIds.add(new UUID(buffer.readLong(), buffer.readLong()));
+            }
+            return new RoutingTarget(type, List.copyOf(uniqueIds), null);
+        }
+        if (length < 0 || buffer.readableBytes() < length) {
+            return null;
+        }
+        var bytes = new byte[length];
+        buffer.readBytes(bytes, 0, length);
+        return new RoutingTarget(type, List.of(), new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String toString() {
+        return this.type + ":" + (this.type == Type.IDENTITIES ? this.uniqueIds : this.name);
+    }
+
+    public enum Type {
+        IDENTITIES,
+        NAMESPACE,
+        GROUP
+    }
+}
@@ -0,0 +1,128 @@
+package de.mariokurz.nettylib.network.protocol.topic;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 22:51 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The subscribers of every topic, topics are matched ignoring case. Each topic keeps an immutable list of its
+ * subscribers which is replaced on every change, so publishing iterates it without locking or filtering.
+ */
+public class TopicRegistry {
+
+    private final Map<String, List<NetworkChannel>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Subscribes a network channel to a topic.
+     *
+     * @param topic          The name of the topic.
+     * @param networkChannel The network channel.
+     * @return True if the network channel was not subscribed to the topic before.
+     */
+    public boolean subscribe(
+            @NonNull String topic,
+            @NonNull NetworkChannel networkChannel
+    ) {
+        var subscribed = new boolean[1];
+        this.subscribers.compute(topicKey(topic), (key, current) -> {
+            if (current != null && current.contains(networkChannel)) {
+                return current;
+            }
+            subscribed[0] = true;
+            var next = current == null ? new ArrayList<NetworkChannel>(1) : new ArrayList<>(current);
+            next.add(networkChannel);
+            return List.copyOf(next);
+        });
+        return subscribed[0];
+    }
+
+    /**
+     * Unsubscribes a network channel from a topic.
+     *
+     * @param topic          The name of the topic.
+     * @param networkChannel The network channel.
+     * @return True if the network channel was subscribed to the topic.
+     */
+    public boolean unsubscribe(
+            @NonNull String topic,
+            @NonNull NetworkChannel networkChannel
+    ) {
+        var unsubscribed = new boolean[1];
+        this.subscribers.computeIfPresent(topicKey(topic), (key, current) -> {
+            unsubscribed[0] = current.contains(networkChannel);
+            return unsubscribed[0] ? without(current, networkChannel) : current;
+        });
+        return unsubscribed[0];
+    }
+
+    /**
+     * Unsubscribes a network channel from every topic, e.g. once its connection went inactive.
+     *
+     * @param networkChannel The network channel.
+     */
+    public void unsubscribeAll(
+            @NonNull NetworkChannel networkChannel
+    ) {
+        for (var topic : this.subscribers.keySet()) {
+            this.subscribers.computeIfPresent(topic, (key, current) ->
+                    current.contains(networkChannel) ? without(current, networkChannel) : current);
+        }
+    }
+
+    /**
+     * Retrieves the subscribers of a topic.
+     *
+     * @param topic The name of the topic.
+     * @return An immutable list of the subscribers, empty if the topic has none.
+     */
+    public List<NetworkChannel> subscribers(
+            @NonNull String topic
+    ) {
+        return this.subscribers.getOrDefault(topicKey(topic), List.of());
+    }
+
+    private static List<NetworkChannel> without(
+            List<NetworkChannel> current,
+            NetworkChannel networkChannel
+    ) {
+        var next = new ArrayList<>(current);
+        next.remove(networkChannel);
+        // Drop the topic once its last subscriber left
+        return next.isEmpty() ? null : List.copyOf(next);
+    }
+
+    private static String topicKey(
+            String topic
+    ) {
+        return topic.toLowerCase(Locale.ROOT);
+    }
+}
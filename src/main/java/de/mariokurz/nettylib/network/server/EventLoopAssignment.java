@@ -0,0 +1,43 @@
+package de.mariokurz.nettylib.network.server;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 22:22 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+/**
+ * Decides which worker event loop a new connection of the server is handled by.
+ */
+public enum EventLoopAssignment {
+
+    /**
+     * The event loops take turns, which is the default of netty. Cheap, but long-lived connections may
+     * end up unevenly spread once many of them closed.
+     */
+    ROUND_ROBIN,
+
+    /**
+     * A new connection is handled by the event loop with the fewest open connections.
+     */
+    LEAST_CONNECTIONS
+
+}
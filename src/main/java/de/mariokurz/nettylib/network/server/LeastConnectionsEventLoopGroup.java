@@ -0,0 +1,212 @@
+package de.mariokurz.nettylib.network.server;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 16:25 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import io.netty5.channel.Channel;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.EventLoop;
+import io.netty5.channel.EventLoopGroup;
+import io.netty5.channel.IoHandle;
+import io.netty5.util.concurrent.EventExecutor;
+import io.netty5.util.concurrent.Future;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the event loop of another group with the fewest open connections, instead of taking turns.
+ * A connection counts from the moment the server channel accepted it until it is closed, see {@link #acceptedChannelCounter()},
+ * so the group is meant to be the child group of a server only. Tasks which are not bound to a connection
+ * are passed on to the wrapped group as they are.
+ */
+public class LeastConnectionsEventLoopGroup implements EventLoopGroup {
+
+    @Getter
+    private final EventLoopGroup delegate;
+    private final EventLoop[] eventLoops;
+    // Open connections per event loop, at the same index
+    private final AtomicInteger[] connections;
+
+    public LeastConnectionsEventLoopGroup(
+            @NonNull EventLoopGroup delegate
+    ) {
+        this.delegate = delegate;
+        var eventLoops = new ArrayList<EventLoop>();
+        for (var eventExecutor : delegate) {
+            eventLoops.add((EventLoop) eventExecutor);
+        }
+        this.eventLoops = eventLoops.toArray(EventLoop[]::new);
+        this.connections = new AtomicInteger[this.eventLoops.length];
+        for (var i = 0; i < this.connections.length; i++) {
+            this.connections[i] = new AtomicInteger();
+        }
+    }
+
+    @Override
+    public EventLoop next() {
+        var index = 0;
+        var least = Integer.MAX_VALUE;
+        for (var i = 0; i < this.connections.length; i++) {
+            var count = this.connections[i].get();
+            if (count < least) {
+                least = count;
+                index = i;
+            }
+        }
+        return this.eventLoops[index];
+    }
+
+    /**
+     * Counts a channel as connection of its event loop until it is closed.
+     *
+     * @param channel A channel created on an event loop of this group.
+     */
+    public void track(
+            @NonNull Channel channel
+    ) {
+        for (var i = 0; i < this.eventLoops.length; i++) {
+            if (this.eventLoops[i] == channel.executor()) {
+                var connections = this.connections[i];
+                connections.incrementAndGet();
+                channel.closeFuture().addListener(future -> connections.decrementAndGet());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Creates the handler of the server channels which tracks every accepted channel. It runs before the channel is
+     * registered, so connections accepted in one burst are counted before the next one picks its event loop.
+     *
+     * @return A handler which may be added to every server channel using this group.
+     */
+    public ChannelHandler acceptedChannelCounter() {
+        return new ChannelHandler() {
+            @Override
+            public boolean isSharable() {
+                return true;
+            }
+
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                if (msg instanceof Channel channel) {
+                    track(channel);
+                }
+                ctx.fireChannelRead(msg);
+            }
+        };
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        this.delegate.execute(task);
+    }
+
+    @Override
+    public Future<Void> submit(Runnable task) {
+        return this.delegate.submit(task);
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+        return this.delegate.submit(task, result);
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        return this.delegate.submit(task);
+    }
+
+    @Override
+    public Future<Void> schedule(Runnable task, long delay, TimeUnit unit) {
+        return this.delegate.schedule(task, delay, unit);
+    }
+
+    @Override
+    public <V> Future<V> schedule(Callable<V> task, long delay, TimeUnit unit) {
+        return this.delegate.schedule(task, delay, unit);
+    }
+
+    @Override
+    public Future<Void> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return this.delegate.scheduleAtFixedRate(task, initialDelay, period, unit);
+    }
+
+    @Override
+    public Future<Void> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return this.delegate.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+    }
+
+    @Override
+    public boolean isCompatible(Class<? extends IoHandle> handleType) {
+        return this.delegate.isCompatible(handleType);
+    }
+
+    @Override
+    public boolean isShuttingDown() {
+        return this.delegate.isShuttingDown();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public Future<Void> shutdownGracefully() {
+        return this.delegate.shutdownGracefully();
+    }
+
+    @Override
+    public Future<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+        return this.delegate.shutdownGracefully(quietPeriod, timeout, unit);
+    }
+
+    @Override
+    public Future<Void> terminationFuture() {
+        return this.delegate.terminationFuture();
+    }
+
+    @Override
+    public Iterator<EventExecutor> iterator() {
+        return this.delegate.iterator();
+    }
+}
@@ -31,30 +31,43 @@ import de.mariokurz.nettylib.ConnectionState;
 import de.mariokurz.nettylib.NettyLib;
 import de.mariokurz.nettylib.network.channel.InactiveAction;
 import de.mariokurz.nettylib.utils.NettyUtils;
+import de.mariokurz.nettylib.utils.Transport;
 import io.netty5.bootstrap.ServerBootstrap;
+import io.netty5.channel.Channel;
 import io.netty5.channel.ChannelOption;
 import io.netty5.channel.EventLoopGroup;
 import io.netty5.channel.MultithreadEventLoopGroup;
+import io.netty5.channel.epoll.EpollChannelOption;
+import io.netty5.channel.unix.UnixChannelOption;
 import io.netty5.handler.ssl.SslContext;
 import io.netty5.handler.ssl.SslContextBuilder;
 import io.netty5.handler.ssl.util.SelfSignedCertificate;
+import io.netty5.util.concurrent.DefaultThreadFactory;
 import lombok.Getter;
 import lombok.NonNull;
 
 import javax.net.ssl.SSLException;
 import java.security.cert.CertificateException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 @Getter
 public class NetworkServer implements AutoCloseable{
 
-    protected final EventLoopGroup bossEventLoopGroup = new MultithreadEventLoopGroup(1, NettyUtils.createIoHandlerFactory());
-    protected final EventLoopGroup workerEventLoopGroup = new MultithreadEventLoopGroup(1, NettyUtils.createIoHandlerFactory());
+    protected final NetworkServerConfig config;
+    protected final EventLoopGroup bossEventLoopGroup;
+    protected final EventLoopGroup workerEventLoopGroup;
     protected final ServerChannelTransmitter serverChannelTransmitter;
     protected final InactiveAction inactiveAction;
     protected final Codec codec;
 
+    // The listening channels, closed with the server even if the event loop groups outlive it
+    protected final List<Channel> serverChannels = new CopyOnWriteArrayList<>();
+
     protected ConnectionState connectionState = ConnectionState.NOT_CONNECTED;
     protected ServerBootstrap serverBootstrap;
     protected SslContext sslCtx;
@@ -64,6 +77,29 @@ public class NetworkServer implements AutoCloseable{
             @NonNull InactiveAction inactiveAction,
             @NonNull Codec codec
     ) {
+        this(ssl, inactiveAction, codec, NetworkServerConfig.defaults());
+    }
+
+    public NetworkServer(
+            boolean ssl,
+            @NonNull InactiveAction inactiveAction,
+            @NonNull Codec codec,
+            @NonNull NetworkServerConfig config
+    ) {
+        this.config = config;
+        // Every acceptor gets a boss thread of its own
+        this.bossEventLoopGroup = config.bossEventLoopGroup() != null
+                ? config.bossEventLoopGroup()
+                : new MultithreadEventLoopGroup(Math.max(config.bossThreads(), config.effectiveAcceptors(NettyUtils.transport())),
+                new DefaultThreadFactory("nettylib-server-boss"), NettyUtils.createIoHandlerFactory());
+        // One IO thread per processor by default, a single thread would serve all connections
+        var workerEventLoopGroup = config.workerEventLoopGroup() != null
+                ? config.workerEventLoopGroup()
+                : new MultithreadEventLoopGroup(config.effectiveWorkerThreads(), new DefaultThreadFactory("nettylib-server-worker"),
+                NettyUtils.createIoHandlerFactory());
+        this.workerEventLoopGroup = config.eventLoopAssignment() == EventLoopAssignment.LEAST_CONNECTIONS
+                ? new LeastConnectionsEventLoopGroup(workerEventLoopGroup)
+                : workerEventLoopGroup;
         this.inactiveAction = inactiveAction;
         this.codec = codec;
         this.serverChannelTransmitter = new ServerChannelTransmitter();
@@ -92,6 +128,17 @@ public class NetworkServer implements AutoCloseable{
                 .childOption(ChannelOption.TCP_NODELAY, true)
                 .childOption(ChannelOption.AUTO_READ, true)
                 .childOption(ChannelOption.SO_KEEPALIVE, true);
+        if (workerEventLoopGroup instanceof LeastConnectionsEventLoopGroup leastConnectionsEventLoopGroup) {
+            // Counts every accepted connection on its event loop before the next connection is accepted
+            serverBootstrap.handler(leastConnectionsEventLoopGroup.acceptedChannelCounter());
+        }
+
+        var acceptors = this.clampAcceptors(config.effectiveAcceptors(NettyUtils.transport()));
+        if (NettyUtils.transport() == Transport.EPOLL) {
+            this.applyEpollOptions(acceptors);
+        } else if (config.acceptors() > 1 || config.tcpFastOpen() > 0 || config.tcpQuickAck() || config.busyPollMicros() > 0) {
+            NettyLib.log(Level.INFO, this.getClass(), "Epoll options are ignored on transport " + NettyUtils.transport());
+        }
 
         var channelFuture = serverBootstrap
                 .bind(
@@ -99,8 +146,9 @@ public class NetworkServer implements AutoCloseable{
                         port)
                 .addListener(future -> {
                     if (future.isSuccess()) {
-                        connectionState = ConnectionState.CONNECTED;
-                        NettyLib.log(Level.INFO, ConsoleColor.GREEN.ansiCode() + "Opened network channel @" + hostName + ":" + port);
+                        serverChannels.add(future.getNow());
+                        // The server is only connected once every acceptor listens
+                        this.bindAcceptors(hostName, port, acceptors);
                     } else {
                         connectionState = ConnectionState.FAILED;
                         NettyLib.log(Level.INFO, ConsoleColor.RED.ansiCode() + "Failed while opening network channel @" + hostName + ":" + port);
@@ -144,9 +192,112 @@ public class NetworkServer implements AutoCloseable{
         });
     }
 
+    /**
+     * Binds the acceptors besides the first one, once it listens. The server is connected when all of them listen.
+     * If one of them fails, the server failed just like if the first one did, and the opened acceptors are closed again.
+     *
+     * @param hostName  The host name to bind to.
+     * @param port      The port to bind to.
+     * @param acceptors The number of listening sockets bound to the port, including the first one.
+     */
+    protected void bindAcceptors(
+            @NonNull String hostName,
+            int port,
+            int acceptors
+    ) {
+        var pendingAcceptors = new AtomicInteger(acceptors - 1);
+        var failed = new AtomicBoolean();
+        Runnable completed = () -> {
+            if (failed.get()) {
+                connectionState = ConnectionState.FAILED;
+                NettyLib.log(Level.INFO, ConsoleColor.RED.ansiCode() + "Failed while opening network channel @" + hostName + ":" + port);
+                for (var serverChannel : serverChannels) {
+                    serverChannel.close();
+                }
+                serverChannels.clear();
+                return;
+            }
+            connectionState = ConnectionState.CONNECTED;
+            NettyLib.log(Level.INFO, ConsoleColor.GREEN.ansiCode() + "Opened network channel @" + hostName + ":" + port);
+        };
+        if (acceptors <= 1) {
+            completed.run();
+            return;
+        }
+        // The other listeners share the port, each one is registered on the next boss thread
+        for (var acceptor = 1; acceptor < acceptors; acceptor++) {
+            var index = acceptor;
+            serverBootstrap.bind(hostName, port).addListener(future -> {
+                if (future.isSuccess()) {
+                    serverChannels.add(future.getNow());
+                } else {
+                    failed.set(true);
+                    NettyLib.log(Level.SEVERE, this.getClass(), "Failed while opening acceptor " + index + " @" + hostName + ":" + port
+                            + ": " + future.cause().getMessage());
+                }
+                if (pendingAcceptors.decrementAndGet() == 0) {
+                    completed.run();
+                }
+            });
+        }
+    }
+
+    /**
+     * Limits the acceptors to the threads of the boss group, acceptors sharing a boss thread would not accept in parallel.
+     *
+     * @param acceptors The number of acceptors of the configuration.
+     * @return The number of listening sockets to bind.
+     */
+    protected int clampAcceptors(
+            int acceptors
+    ) {
+        var bossThreads = 0;
+        for (var ignored : bossEventLoopGroup) {
+            bossThreads++;
+        }
+        if (acceptors > bossThreads) {
+            NettyLib.log(Level.WARNING, this.getClass(), "The boss group has " + bossThreads + " threads, opening "
+                    + bossThreads + " instead of " + acceptors + " acceptors");
+            return Math.max(1, bossThreads);
+        }
+        return acceptors;
+    }
+
+    /**
+     * Applies the epoll specific options of the configuration to the bootstrap.
+     *
+     * @param acceptors The number of listening sockets bound to the port.
+     */
+    protected void applyEpollOptions(
+            int acceptors
+    ) {
+        if (acceptors > 1) {
+            // Lets the listeners bind the same port, the kernel balances new connections between them
+            this.serverBootstrap.option(UnixChannelOption.SO_REUSEPORT, true);
+        }
+        if (config.tcpFastOpen() > 0) {
+            this.serverBootstrap.option(EpollChannelOption.TCP_FASTOPEN, config.tcpFastOpen());
+        }
+        if (config.tcpQuickAck()) {
+            this.serverBootstrap.childOption(EpollChannelOption.TCP_QUICKACK, true);
+        }
+        if (config.busyPollMicros() > 0) {
+            this.serverBootstrap.childOption(EpollChannelOption.SO_BUSY_POLL, config.busyPollMicros());
+        }
+    }
+
     @Override
     public void close() throws Exception {
-        bossEventLoopGroup.shutdownGracefully();
-        workerEventLoopGroup.shutdownGracefully();
+        for (var serverChannel : serverChannels) {
+            serverChannel.close();
+        }
+        serverChannels.clear();
+        // External groups belong to whoever passed them in
+        if (config.bossEventLoopGroup() == null) {
+            bossEventLoopGroup.shutdownGracefully();
+        }
+        if (config.workerEventLoopGroup() == null) {
+            workerEventLoopGroup.shutdownGracefully();
+        }
     }
 }
@@ -46,7 +46,7 @@ public class NetworkServerChannelInitializer extends ChannelInitializer<Channel>
             channel.pipeline().addLast(networkServer.sslCtx.newHandler(channel.bufferAllocator()));
         }
 
-        NettyLib.initChannelPipeline(channel, networkServer.codec, networkServer.serverChannelTransmitter.packetRegistry());
+        NettyLib.initChannelPipeline(channel, networkServer.codec, networkServer.serverChannelTransmitter.packetRegistry(), networkServer.serverChannelTransmitter);
         channel.pipeline().addLast(new NetworkServerHandler(networkServer.serverChannelTransmitter));
 
     }
@@ -0,0 +1,102 @@
+package de.mariokurz.nettylib.network.server;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 20:53 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.utils.Transport;
+import io.netty5.channel.EventLoopGroup;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+
+import javax.annotation.Nullable;
+
+/**
+ * Configures the event loops of a {@link NetworkServer}. Every value has a default, so only the ones
+ * differing from it have to be set on the builder.
+ */
+@Getter
+@Builder
+public class NetworkServerConfig {
+
+    // Threads accepting connections, one is enough for a single listening socket
+    @Builder.Default
+    private final int bossThreads = 1;
+    // Threads doing the IO of the connections, 0 uses one thread per available processor
+    @Builder.Default
+    private final int workerThreads = 0;
+    // An external group accepting connections, the server never shuts it down
+    @Nullable
+    private final EventLoopGroup bossEventLoopGroup;
+    // An external group doing the IO of the connections, e.g. shared by several servers. The server never shuts it down
+    @Nullable
+    private final EventLoopGroup workerEventLoopGroup;
+    @NonNull
+    @Builder.Default
+    private final EventLoopAssignment eventLoopAssignment = EventLoopAssignment.ROUND_ROBIN;
+    // Listening sockets bound to the same port with SO_REUSEPORT, each accepting on its own boss thread.
+    // The kernel spreads incoming connections over them, only the epoll transport supports more than one
+    @Builder.Default
+    private final int acceptors = 1;
+    // Length of the queue of pending TCP Fast Open requests of the listening sockets, 0 disables it. Epoll only
+    @Builder.Default
+    private final int tcpFastOpen = 0;
+    // Acknowledges received data right away instead of delaying it. Epoll only
+    @Builder.Default
+    private final boolean tcpQuickAck = false;
+    // Microseconds a read busy-polls the device before it sleeps, 0 disables it. Epoll only
+    @Builder.Default
+    private final int busyPollMicros = 0;
+
+    /**
+     * Creates a configuration with all defaults: one boss thread, one worker thread per available processor
+     * and round-robin assignment of the connections.
+     *
+     * @return The default configuration.
+     */
+    public static NetworkServerConfig defaults() {
+        return builder().build();
+    }
+
+    /**
+     * Resolves the number of listening sockets the server binds on the given transport.
+     *
+     * @param transport The transport of the server.
+     * @return The configured number of acceptors on epoll, otherwise one.
+     */
+    public int effectiveAcceptors(
+            @NonNull Transport transport
+    ) {
+        return transport == Transport.EPOLL ? Math.max(1, this.acceptors) : 1;
+    }
+
+    /**
+     * Resolves the number of worker threads the server creates if no external worker group is set.
+     *
+     * @return The configured number of worker threads, or the number of available processors.
+     */
+    public int effectiveWorkerThreads() {
+        return this.workerThreads > 0 ? this.workerThreads : Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -25,10 +25,17 @@ package de.mariokurz.nettylib.network.server;
  */
 
 import de.mariokurz.nettylib.NettyLib;
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.channel.PendingRequests;
+import de.mariokurz.nettylib.network.protocol.Packet;
 import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelAuthorizePacket;
+import de.mariokurz.nettylib.network.protocol.interest.PacketInterestPacket;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingGroupPacket;
 import de.mariokurz.nettylib.network.protocol.routing.RoutingPacket;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingPacketManager;
 import de.mariokurz.nettylib.network.protocol.routing.RoutingResult;
 import de.mariokurz.nettylib.network.protocol.routing.RoutingResultPacket;
+import de.mariokurz.nettylib.network.protocol.topic.TopicSubscriptionPacket;
 import io.netty5.channel.ChannelHandlerContext;
 import io.netty5.channel.SimpleChannelInboundHandler;
 import lombok.AllArgsConstructor;
@@ -50,24 +57,92 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<Object> {
             return;
         }
 
+        if (o instanceof RoutingGroupPacket routingGroupPacket) {
+            var networkChannel = NetworkChannel.of(channelHandlerContext.channel());
+            if (networkChannel != null && routingGroupPacket.group() != null) {
+                if (routingGroupPacket.join()) {
+                    serverChannelTransmitter.joinRoutingGroup(routingGroupPacket.group(), networkChannel.channelIdentity());
+                } else {
+                    serverChannelTransmitter.leaveRoutingGroup(routingGroupPacket.group(), networkChannel.channelIdentity());
+                }
+            }
+            return;
+        }
+
+        if (o instanceof PacketInterestPacket packetInterestPacket) {
+            var networkChannel = NetworkChannel.of(channelHandlerContext.channel());
+            if (networkChannel != null) {
+                networkChannel.packetInterests().update(packetInterestPacket);
+            }
+            return;
+        }
+
+        if (o instanceof TopicSubscriptionPacket topicSubscriptionPacket) {
+            var networkChannel = NetworkChannel.of(channelHandlerContext.channel());
+            if (networkChannel != null && topicSubscriptionPacket.topic() != null) {
+                if (topicSubscriptionPacket.subscribe()) {
+                    serverChannelTransmitter.topicRegistry().subscribe(topicSubscriptionPacket.topic(), networkChannel);
+                } else {
+                    serverChannelTransmitter.topicRegistry().unsubscribe(topicSubscriptionPacket.topic(), networkChannel);
+                }
+            }
+            return;
+        }
+
+        // Responses to routed queries go straight back to their requester
+        if (o instanceof Packet packet && serverChannelTransmitter.routingPacketManager().relayResponse(packet, channelHandlerContext.channel())) {
+            return;
+        }
+
+        if (o instanceof RoutingPacket routingPacket && routingPacket.routedQuery()) {
+            var requester = NetworkChannel.of(channelHandlerContext.channel());
+            var networkChannel = serverChannelTransmitter.getNetworkChannel(routingPacket.receiverIdentity());
+            if (requester == null) {
+                return;
+            }
+            if (networkChannel == null || networkChannel.inactive()) {
+                NettyLib.log(Level.SEVERE, "No NetworkChannel for {0} found.", routingPacket.receiverIdentity());
+                RoutingPacketManager.failRelayedQuery(requester, routingPacket.queryId(), RoutingResult.FAILED_NO_CHANNEL);
+            } else {
+                serverChannelTransmitter.routingPacketManager().relayQuery(routingPacket, requester, networkChannel);
+            }
+            return;
+        }
+
         if (o instanceof RoutingPacket routingPacket) {
             var networkChannel = serverChannelTransmitter.getNetworkChannel(routingPacket.receiverIdentity());
-            RoutingResultPacket routingResultPacket = new RoutingResultPacket();
-            routingResultPacket.queryId(routingPacket.queryId());
+            var ackRequested = routingPacket.ackRequested();
+            var routingQueryId = routingPacket.queryId();
+            // The query ID belongs to the connection of the sender, it means nothing on the connection of the receiver
+            routingPacket.queryId(Packet.NO_QUERY_ID);
+            routingPacket.ackRequested(false);
+            RoutingResult routingResult;
             if (networkChannel == null) {
                 NettyLib.log(Level.SEVERE, "No NetworkChannel for {0} found.", routingPacket.receiverIdentity());
-                routingResultPacket.result(RoutingResult.FAILED_NO_CHANNEL);
+                routingResult = RoutingResult.FAILED_NO_CHANNEL;
             } else {
-                NettyLib.log(Level.INFO, "Send Packet " + routingPacket.getClass().getName() + " to NetworkChannel {0}", routingPacket.receiverIdentity());
+                NettyLib.debug(Level.INFO, this.getClass(), "Send Packet " + routingPacket.getClass().getName() + " to NetworkChannel " + routingPacket.receiverIdentity());
                 networkChannel.sendPacket(routingPacket);
-                routingResultPacket.result(RoutingResult.SUCCESS);
+                routingResult = RoutingResult.SUCCESS;
+            }
+            // Fire-and-forget routings are not confirmed, nobody would read the result
+            if (ackRequested) {
+                RoutingResultPacket routingResultPacket = new RoutingResultPacket();
+                routingResultPacket.queryId(routingQueryId);
+                routingResultPacket.result(routingResult);
+                NetworkChannel.of(channelHandlerContext.channel()).sendPacket(routingResultPacket);
             }
-            serverChannelTransmitter.getNetworkChannel(channelHandlerContext.channel()).sendPacket(routingResultPacket);
         }
 
         serverChannelTransmitter.dispatchPacketObject(o, channelHandlerContext);
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        serverChannelTransmitter.dispatchReadComplete(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         NettyLib.debug(Level.INFO, this.getClass(), "Channel active: " + ctx.channel().remoteAddress());
@@ -76,6 +151,8 @@ public class NetworkServerHandler extends SimpleChannelInboundHandler<Object> {
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // Nobody is left to answer, fail the pending requests instead of letting them time out
+        PendingRequests.of(ctx.channel()).failAll();
         if ((!ctx.channel().isActive() || !ctx.channel().isOpen() || !ctx.channel().isWritable())) {
             NettyLib.debug(Level.INFO, this.getClass(), "Channel inactive: " + ctx.channel().remoteAddress());
             serverChannelTransmitter.inactive(ctx);
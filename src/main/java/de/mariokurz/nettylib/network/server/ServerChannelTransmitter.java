@@ -29,14 +29,24 @@ import de.mariokurz.nettylib.NettyLib;
 import de.mariokurz.nettylib.network.ChannelIdentity;
 import de.mariokurz.nettylib.network.channel.ChannelTransmitter;
 import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.channel.NetworkChannelRegistry;
 import de.mariokurz.nettylib.network.protocol.Packet;
 import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelAuthenticatedPacket;
 import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelAuthorizePacket;
 import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelInactivePacket;
 import de.mariokurz.nettylib.network.protocol.authorize.NetworkChannelInitPacket;
+import de.mariokurz.nettylib.network.protocol.interest.PacketInterests;
 import de.mariokurz.nettylib.network.protocol.query.QueryPacketManager;
 import de.mariokurz.nettylib.network.protocol.receiver.PacketReceiverManager;
 import de.mariokurz.nettylib.network.protocol.register.PacketRegistry;
+import de.mariokurz.nettylib.network.protocol.routing.ForwardedFrame;
+import de.mariokurz.nettylib.network.protocol.routing.MulticastResultPacket;
+import de.mariokurz.nettylib.network.protocol.routing.RoutedFrameForwarder;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingPacketManager;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingResult;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingTarget;
+import de.mariokurz.nettylib.network.protocol.topic.TopicRegistry;
+import io.netty5.buffer.Buffer;
 import io.netty5.channel.Channel;
 import io.netty5.channel.ChannelHandlerContext;
 import lombok.Getter;
@@ -44,21 +54,39 @@ import lombok.NonNull;
 
 import javax.annotation.Nullable;
 import java.net.SocketAddress;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 
 @Getter
-public class ServerChannelTransmitter implements ChannelTransmitter {
+public class ServerChannelTransmitter implements ChannelTransmitter, RoutedFrameForwarder {
 
     protected final PacketReceiverManager packetReceiverManager = new PacketReceiverManager();
     protected final QueryPacketManager queryPacketManager = new QueryPacketManager();
+    protected final RoutingPacketManager routingPacketManager = new RoutingPacketManager();
     protected final PacketRegistry packetRegistry = new PacketRegistry();
-    protected final Map<SocketAddress, Channel> unauthorized = new HashMap<>();
-    protected final Map<UUID, Pair<NetworkChannel, Long>> authorized = new HashMap<>();
+    protected final Map<SocketAddress, Channel> unauthorized = new ConcurrentHashMap<>();
+    /**
+     * The authorized network channels with the time of their authorization, by unique ID.
+     *
+     * @deprecated Lookups go through {@link #networkChannelRegistry()}, which indexes the same network channels
+     * by netty channel, unique ID and namespace. The map is still kept up to date for existing callers.
+     */
+    @Deprecated
+    protected final Map<UUID, Pair<NetworkChannel, Long>> authorized = new ConcurrentHashMap<>();
+    // Indexes of the authorized network channels, every lookup goes through it
+    protected final NetworkChannelRegistry networkChannelRegistry = new NetworkChannelRegistry();
+    // The unique IDs of the members of every routing group
+    protected final Map<String, Set<UUID>> routingGroups = new ConcurrentHashMap<>();
+    // The subscribers of every topic, packets are published to them without filtering at send time
+    protected final TopicRegistry topicRegistry = new TopicRegistry();
 
     /**
      * Send a packet to all authorized network channels except those that match the given predicate.
@@ -71,16 +99,41 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
             @NonNull Object packet,
             @Nullable Predicate<NetworkChannel> ifNot
     ) {
-        // Iterate over each authorized network channel
-        authorized.forEach((uuid, networkChannelLongPair) -> {
-            // Check if a predicate is provided and the network channel does not match the predicate,
-            // or if the network channel is inactive
-            if (ifNot != null && ifNot.test(networkChannelLongPair.first()) || networkChannelLongPair.first().inactive()) {
-                return; // Skip sending the packet to this network channel
-            }
-            // Send the packet to the network channel
-            networkChannelLongPair.first().sendPacket(packet);
-        });
+        // Clients without a receiver for the packet would only decode it to drop it
+        var packetTypes = PacketInterests.typeIds(packet.getClass());
+        // Encode the packet once and write it to the snapshot of the authorized network channels,
+        // skipping inactive ones, uninterested ones and those matching the predicate
+        NetworkChannel.sendPacketToAll(packet, this.networkChannelRegistry.values(), networkChannel ->
+                !networkChannel.packetInterests().matches(packetTypes) || ifNot != null && ifNot.test(networkChannel));
+    }
+
+    /**
+     * Sends a packet of the library itself to all authorized network channels except those that match the given predicate.
+     * Clients handle these packets without receivers, so their interests are not considered.
+     *
+     * @param packet The packet to send.
+     * @param ifNot  Predicate specifying which network channels should be excluded from receiving the packet.
+     */
+    protected void sendControlPacketToAll(
+            @NonNull Object packet,
+            @Nullable Predicate<NetworkChannel> ifNot
+    ) {
+        NetworkChannel.sendPacketToAll(packet, this.networkChannelRegistry.values(), ifNot);
+    }
+
+    /**
+     * Publishes a packet to all active subscribers of a topic. The packet is encoded only once, no matter how many
+     * network channels subscribed to the topic.
+     *
+     * @param topic  The name of the topic, matched ignoring case.
+     * @param packet The packet to publish.
+     * @return The number of network channels the packet was sent to.
+     */
+    public int publish(
+            @NonNull String topic,
+            @NonNull Object packet
+    ) {
+        return NetworkChannel.sendPacketToAll(packet, this.topicRegistry.subscribers(topic), null);
     }
 
     /**
@@ -90,10 +143,8 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
      */
     @Override
     public Collection<NetworkChannel> getNetworkChannels() {
-        // Retrieve the network channels from the authorized map and convert them to a collection
-        return authorized.values().stream()
-                .map(Pair::first)
-                .toList();
+        // The registry hands out an immutable snapshot, there is nothing to copy
+        return this.networkChannelRegistry.values();
     }
 
     /**
@@ -106,15 +157,8 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
     public NetworkChannel getNetworkChannel(
             @NonNull Channel channel
     ) {
-        // Iterate through each authorized entry
-        for (var value : authorized.values()) {
-            // Check if the remote address of the channel matches
-            if (value.first().channel().remoteAddress().equals(channel.remoteAddress()) && !value.first().inactive()) {
-                // Return the associated network channel
-                return value.first();
-            }
-        }
-        return null; // Network channel not found
+        // Look up the active network channel of the netty channel
+        return this.networkChannelRegistry.get(channel);
     }
 
     /**
@@ -127,15 +171,8 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
     public NetworkChannel getNetworkChannel(
             @NonNull String namespace
     ) {
-        // Iterate through each authorized entry
-        for (var value : authorized.values()) {
-            // Check if the namespace matches
-            if (value.first().channelIdentity().namespace().equalsIgnoreCase(namespace) && !value.first().inactive()) {
-                // Return the associated network channel
-                return value.first();
-            }
-        }
-        return null; // Network channel not found
+        // Look up the first active network channel of the namespace, ignoring case
+        return this.networkChannelRegistry.get(namespace);
     }
 
     /**
@@ -148,15 +185,8 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
     public NetworkChannel getNetworkChannel(
             @NonNull UUID uniqueId
     ) {
-        // Iterate through each authorized entry
-        for (var value : authorized.values()) {
-            // Check if the unique ID matches
-            if (value.first().channelIdentity().uniqueId().equals(uniqueId) && !value.first().inactive()) {
-                // Return the associated network channel
-                return value.first();
-            }
-        }
-        return null; // Network channel not found
+        // Look up the active network channel of the unique ID
+        return this.networkChannelRegistry.get(uniqueId);
     }
 
     /**
@@ -169,15 +199,9 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
     public NetworkChannel getNetworkChannel(
             @NonNull ChannelIdentity channelIdentity
     ) {
-        // Iterate through each authorized entry
-        for (var value : authorized.values()) {
-            // Check if the channelIdentity matches
-            if (value.first().channelIdentity().equals(channelIdentity) && !value.first().inactive()) {
-                // Return the associated network channel
-                return value.first();
-            }
-        }
-        return null; // Network channel not found
+        // Look up the network channel by unique ID, the namespace has to match as well
+        var networkChannel = this.networkChannelRegistry.get(channelIdentity.uniqueId());
+        return networkChannel != null && networkChannel.channelIdentity().equals(channelIdentity) ? networkChannel : null;
     }
 
     /**
@@ -194,13 +218,168 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
         // Check if the packet object is an instance of Packet
         if (packetObj instanceof Packet packet) {
             // Retrieve the network channel associated with the channel handler context
-            var networkChannel = this.getNetworkChannel(channelHandlerContext.channel());
+            // Cancellations and packets of query streams are consumed by the query packet manager
+            if (this.queryPacketManager.dispatchControl(packet, channelHandlerContext.channel())) {
+                return;
+            }
+            // The network channel is attached to the channel on authorization, there is nothing to look up
+            var networkChannel = NetworkChannel.of(channelHandlerContext.channel());
             // Dispatch the packet to the query packet manager and packet receiver manager
-            this.queryPacketManager.dispatch(packet);
+            this.queryPacketManager.dispatch(packet, channelHandlerContext.channel());
             this.packetReceiverManager.dispatch(packet, networkChannel, channelHandlerContext);
         }
     }
 
+    /**
+     * Forwards a routed frame to its receivers without decoding it, every receiver gets the bytes as they were read.
+     * The receivers clear the query ID of the packet, and the server itself never dispatches it.
+     * If the sender requested a result, it is answered with the receivers the frame was forwarded to.
+     * Routed frames of connections which are not authorized are dropped and their connection is closed.
+     *
+     * @param source      The netty channel the frame was read from.
+     * @param target      The receivers of the frame.
+     * @param queryId     The ID to answer the delivery result under, or no query ID if no result is requested.
+     * @param packetTypes The type IDs of the encoded packet, receivers without interest in it are skipped.
+     * @param body        The encoded packet.
+     */
+    @Override
+    public void forwardRoutedFrame(
+            @NonNull Channel source,
+            @NonNull RoutingTarget target,
+            long queryId,
+            int @NonNull [] packetTypes,
+            @NonNull Buffer body
+    ) {
+        var sender = this.networkChannelRegistry.get(source);
+        if (sender == null) {
+            NettyLib.log(Level.SEVERE, this.getClass(), "Closing unauthorized connection " + source.remoteAddress() + " which sent a routed frame");
+            body.close();
+            source.close();
+            return;
+        }
+        var receivers = this.resolveRoutingTarget(target, source);
+        receivers.removeIf(receiver -> !receiver.packetInterests().matches(packetTypes));
+        if (receivers.isEmpty()) {
+            NettyLib.log(Level.SEVERE, "No NetworkChannel for {0} found.", target);
+            body.close();
+        } else if (receivers.size() == 1) {
+            receivers.get(0).channel().writeAndFlush(new ForwardedFrame(body));
+        } else {
+            // Every receiver gets its own offsets on the same read-only bytes
+            try (body) {
+                body.makeReadOnly();
+                for (var receiver : receivers) {
+                    receiver.channel().writeAndFlush(new ForwardedFrame(body.copy(body.readerOffset(), body.readableBytes(), true)));
+                }
+            }
+        }
+
+        if (queryId != Packet.NO_QUERY_ID) {
+            var multicastResultPacket = new MulticastResultPacket();
+            multicastResultPacket.queryId(queryId);
+            multicastResultPacket.result(receivers.isEmpty() ? RoutingResult.FAILED_NO_CHANNEL : RoutingResult.SUCCESS);
+            multicastResultPacket.receivers(receivers.stream().map(receiver -> receiver.channelIdentity().uniqueId()).toList());
+            sender.sendPacket(multicastResultPacket);
+        }
+    }
+
+    /**
+     * Resolves the active network channels a routing target addresses.
+     *
+     * @param target The routing target.
+     * @param source The netty channel of the sender, which never receives its own routing.
+     * @return The network channels of the receivers.
+     */
+    public List<NetworkChannel> resolveRoutingTarget(
+            @NonNull RoutingTarget target,
+            @Nullable Channel source
+    ) {
+        Collection<UUID> uniqueIds = switch (target.type()) {
+            case IDENTITIES -> target.uniqueIds();
+            case GROUP -> this.routingGroups.getOrDefault(target.name().toLowerCase(Locale.ROOT), Set.of());
+            case NAMESPACE -> null;
+        };
+        List<NetworkChannel> receivers = new ArrayList<>();
+        if (uniqueIds == null) {
+            receivers.addAll(this.networkChannelRegistry.namespace(target.name()));
+        } else {
+            for (var uniqueId : uniqueIds) {
+                var networkChannel = this.networkChannelRegistry.get(uniqueId);
+                if (networkChannel != null) {
+                    receivers.add(networkChannel);
+                }
+            }
+        }
+        receivers.removeIf(networkChannel -> networkChannel.inactive() || networkChannel.channel() == source);
+        return receivers;
+    }
+
+    /**
+     * Adds a network channel to a routing group, multicasts addressed to the group reach it from then on.
+     * Group names are matched ignoring case.
+     *
+     * @param group           The name of the routing group.
+     * @param channelIdentity The identity of the network channel.
+     */
+    public void joinRoutingGroup(
+            @NonNull String group,
+            @NonNull ChannelIdentity channelIdentity
+    ) {
+        this.routingGroups.computeIfAbsent(group.toLowerCase(Locale.ROOT), name -> ConcurrentHashMap.newKeySet())
+                .add(channelIdentity.uniqueId());
+    }
+
+    /**
+     * Removes a network channel from a routing group.
+     *
+     * @param group           The name of the routing group.
+     * @param channelIdentity The identity of the network channel.
+     * @return True if the network channel was a member of the group.
+     */
+    public boolean leaveRoutingGroup(
+            @NonNull String group,
+            @NonNull ChannelIdentity channelIdentity
+    ) {
+        var members = this.routingGroups.get(group.toLowerCase(Locale.ROOT));
+        if (members == null || !members.remove(channelIdentity.uniqueId())) {
+            return false;
+        }
+        // Drop the group once its last member left
+        this.routingGroups.computeIfPresent(group.toLowerCase(Locale.ROOT), (name, set) -> set.isEmpty() ? null : set);
+        return true;
+    }
+
+    /**
+     * Removes a network channel from every routing group it is a member of.
+     *
+     * @param uniqueId The unique ID of the network channel.
+     * @return The number of routing groups the network channel left.
+     */
+    public int leaveRoutingGroups(
+            @NonNull UUID uniqueId
+    ) {
+        var left = 0;
+        for (var entry : this.routingGroups.entrySet()) {
+            if (entry.getValue().remove(uniqueId)) {
+                left++;
+                this.routingGroups.computeIfPresent(entry.getKey(), (name, set) -> set.isEmpty() ? null : set);
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Signals that the current read cycle of a channel is complete, so packets collected for batch handlers are passed on.
+     *
+     * @param channelHandlerContext The channel handler context whose read cycle completed.
+     */
+    @Override
+    public void dispatchReadComplete(
+            @NonNull ChannelHandlerContext channelHandlerContext
+    ) {
+        this.packetReceiverManager.flushBatches(channelHandlerContext);
+    }
+
     /**
      * Marks a network channel as active.
      *
@@ -209,16 +388,16 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
     public void active(
             @NonNull ChannelHandlerContext ctx
     ) {
-        // Iterate through each authorized entry
-        for (Pair<NetworkChannel, Long> value : authorized.values()) {
+        // Iterate through each authorized network channel, this only happens once per connection
+        for (var networkChannel : this.networkChannelRegistry.values()) {
             // Check if the remote address of the network channel matches
-            if (value.first().channel().remoteAddress().equals(ctx.channel().remoteAddress())) {
+            if (networkChannel.channel().remoteAddress().equals(ctx.channel().remoteAddress())) {
                 // Set the network channel as active
-                value.first().inactive(false);
+                networkChannel.inactive(false);
                 break;
             }
         }
-        // Move the channel from the unauthorized map to the authorized map
+        // Mark the channel as waiting for authorization
         unauthorized.put(ctx.channel().remoteAddress(), ctx.channel());
     }
 
@@ -230,20 +409,21 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
     public void inactive(
             @NonNull ChannelHandlerContext ctx
     ) {
-        // Iterate through each authorized entry
-        for (Pair<NetworkChannel, Long> value : authorized.values()) {
-            // Check if the remote address of the network channel matches
-            if (value.first().channel().remoteAddress().equals(ctx.channel().remoteAddress())) {
-                // Send a packet to all network channels indicating the channel is no longer authenticated
-                sendPacketToAll(new NetworkChannelInactivePacket(value.first().channelIdentity()),
-                        networkChannels -> networkChannels.channelIdentity().equals(value.first().channelIdentity()));
-                // Set the network channel as inactive
-                value.first().inactive(true);
-                // Remove the channel from the active ones
-//                this.authorized.remove(value.first().channelIdentity().uniqueId());
-                NettyLib.log(Level.INFO, this.getClass(), "Disabled NetworkChannel: " + value.first().channelIdentity());
-                break;
+        // The network channel of the connection which went inactive, it stays registered as inactive
+        var networkChannel = this.networkChannelRegistry.get(ctx.channel());
+        if (networkChannel != null) {
+            // Send a packet to all network channels indicating the channel is no longer authenticated
+            sendControlPacketToAll(new NetworkChannelInactivePacket(networkChannel.channelIdentity()),
+                    networkChannels -> networkChannels.channelIdentity().equals(networkChannel.channelIdentity()));
+            // Set the network channel as inactive
+            networkChannel.inactive(true);
+            // A network channel that reconnects subscribes again, its old connection is gone for good
+            this.topicRegistry.unsubscribeAll(networkChannel);
+            // Memberships are kept by unique ID, a newer connection with the same ID keeps its own
+            if (this.networkChannelRegistry.get(networkChannel.channelIdentity().uniqueId()) == null) {
+                this.leaveRoutingGroups(networkChannel.channelIdentity().uniqueId());
             }
+            NettyLib.log(Level.INFO, this.getClass(), "Disabled NetworkChannel: " + networkChannel.channelIdentity());
         }
     }
 
@@ -267,12 +447,12 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
         var networkChannel = new NetworkChannel(
                 networkChannelAuthorizePacket.connectedChannel(),
                 queryPacketManager,
-                null, // null argument to be filled later
+                routingPacketManager,
                 ctx.channel(),
                 false
         );
         // Send an authentication packet to all network channels
-        sendPacketToAll(new NetworkChannelAuthenticatedPacket(networkChannelAuthorizePacket.connectedChannel()), null);
+        sendControlPacketToAll(new NetworkChannelAuthenticatedPacket(networkChannelAuthorizePacket.connectedChannel()), null);
         // Send a network channel initialization packet to the newly authorized network channel
         networkChannel.sendPacket(new NetworkChannelInitPacket(this.getNetworkChannels().stream()
                 .filter(networkChannels -> !networkChannels.inactive())
@@ -282,6 +462,8 @@ public class ServerChannelTransmitter implements ChannelTransmitter {
         authorized.put(networkChannelAuthorizePacket.connectedChannel().uniqueId(), new Pair<>(networkChannel,
                 System.currentTimeMillis()
         ));
+        // Index the network channel, a network channel registered with the same unique ID before is replaced
+        this.networkChannelRegistry.register(networkChannel);
         // Log the successful authorization of the network channel
         NettyLib.debug(Level.INFO, this.getClass(), "Authorized Channel: "
                 + ctx.channel().remoteAddress() + " - "
@@ -0,0 +1,257 @@
+package de.mariokurz.nettylib.utils;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 23:09 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A thread safe map from primitive long keys to values, without boxing the keys.
+ * The keys are spread over a fixed number of stripes, each of them is an open addressing
+ * table with linear probing that is guarded by its own lock.
+ * The key {@code 0} is reserved to mark empty slots, it cannot be stored and is never found.
+ *
+ * @param <V> The type of the values.
+ */
+public class ConcurrentLongMap<V> {
+
+    private static final int STRIPES = 16;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final Stripe<V>[] stripes;
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongMap() {
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new Stripe<>();
+        }
+    }
+
+    public V get(long key) {
+        // The reserved key marks empty slots, probing for it would hit the first free slot
+        if (key == 0) {
+            return null;
+        }
+        var hash = hash(key);
+        return this.stripe(hash).get(key, hash);
+    }
+
+    public V put(long key, @NonNull V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("The key 0 is reserved");
+        }
+        var hash = hash(key);
+        return this.stripe(hash).put(key, value, hash, false);
+    }
+
+    /**
+     * Stores a value only if the key is not mapped yet.
+     *
+     * @return The value which is already mapped, or null if the given value has been stored.
+     */
+    public V putIfAbsent(long key, @NonNull V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("The key 0 is reserved");
+        }
+        var hash = hash(key);
+        return this.stripe(hash).put(key, value, hash, true);
+    }
+
+    public V remove(long key) {
+        // The reserved key is never stored, removing it must not clear an empty slot
+        if (key == 0) {
+            return null;
+        }
+        var hash = hash(key);
+        return this.stripe(hash).remove(key, hash);
+    }
+
+    public int size() {
+        var size = 0;
+        for (var stripe : this.stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * Creates a snapshot of all values.
+     *
+     * @return The values at the time of the call.
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<>();
+        for (var stripe : this.stripes) {
+            stripe.collect(values, false);
+        }
+        return values;
+    }
+
+    /**
+     * Removes all entries.
+     *
+     * @return The values that were removed.
+     */
+    public List<V> clear() {
+        List<V> values = new ArrayList<>();
+        for (var stripe : this.stripes) {
+            stripe.collect(values, true);
+        }
+        return values;
+    }
+
+    private Stripe<V> stripe(long hash) {
+        // The upper bits pick the stripe, the lower bits the slot inside it
+        return this.stripes[(int) (hash >>> 32) & (STRIPES - 1)];
+    }
+
+    private static long hash(long key) {
+        var hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static final class Stripe<V> {
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(long key, long hash) {
+            var mask = this.keys.length - 1;
+            for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+                var current = this.keys[index];
+                if (current == key) {
+                    return (V) this.values[index];
+                }
+                if (current == 0) {
+                    return null;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V put(long key, V value, long hash, boolean onlyIfAbsent) {
+            var mask = this.keys.length - 1;
+            for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+                var current = this.keys[index];
+                if (current == key) {
+                    var previous = (V) this.values[index];
+                    if (!onlyIfAbsent) {
+                        this.values[index] = value;
+                    }
+                    return previous;
+                }
+                if (current == 0) {
+                    this.keys[index] = key;
+                    this.values[index] = value;
+                    // Keep the load factor at or below one half so probe sequences stay short
+                    if (++this.size * 2 > this.keys.length) {
+                        this.resize(this.keys.length * 2);
+                    }
+                    return null;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(long key, long hash) {
+            var mask = this.keys.length - 1;
+            var index = (int) hash & mask;
+            while (this.keys[index] != key) {
+                if (this.keys[index] == 0) {
+                    return null;
+                }
+                index = (index + 1) & mask;
+            }
+            var previous = (V) this.values[index];
+            this.keys[index] = 0;
+            this.values[index] = null;
+            this.size--;
+            // Shift the following entries of the probe sequence back into the freed slot
+            var free = index;
+            for (int next = (free + 1) & mask; this.keys[next] != 0; next = (next + 1) & mask) {
+                var home = (int) hash(this.keys[next]) & mask;
+                if (!between(home, free, next)) {
+                    this.keys[free] = this.keys[next];
+                    this.values[free] = this.values[next];
+                    this.keys[next] = 0;
+                    this.values[next] = null;
+                    free = next;
+                }
+            }
+            return previous;
+        }
+
+        synchronized int size() {
+            return this.size;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void collect(List<V> target, boolean clear) {
+            for (int index = 0; index < this.keys.length; index++) {
+                if (this.keys[index] != 0) {
+                    target.add((V) this.values[index]);
+                }
+            }
+            if (clear) {
+                this.keys = new long[INITIAL_CAPACITY];
+                this.values = new Object[INITIAL_CAPACITY];
+                this.size = 0;
+            }
+        }
+
+        private void resize(int capacity) {
+            var oldKeys = this.keys;
+            var oldValues = this.values;
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            var mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) {
+                    continue;
+                }
+                var index = (int) hash(oldKeys[i]) & mask;
+                while (this.keys[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                this.keys[index] = oldKeys[i];
+                this.values[index] = oldValues[i];
+            }
+        }
+
+        // Whether the home slot lies cyclically within (free, next], in which case the entry must stay
+        private static boolean between(int home, int free, int next) {
+            return free <= next ? free < home && home <= next : free < home || home <= next;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package de.mariokurz.nettylib.utils;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 18:22 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import io.netty5.channel.Channel;
+import io.netty5.channel.ChannelFactory;
+import io.netty5.channel.EventLoop;
+import io.netty5.channel.EventLoopGroup;
+import io.netty5.channel.IoHandlerFactory;
+import io.netty5.channel.ServerChannel;
+import io.netty5.channel.ServerChannelFactory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Binds the io_uring transport of netty by reflection, so the library neither depends on the io_uring module
+ * nor fails without it. The transport counts as available only if the module is on the class path
+ * and reports that the kernel supports io_uring.
+ */
+final class IoUringTransport {
+
+    private static final String PACKAGE = "io.netty5.channel.uring.";
+
+    private static final IoHandlerFactory IO_HANDLER_FACTORY;
+    private static final Constructor<? extends ServerChannel> SERVER_CHANNEL_CONSTRUCTOR;
+    private static final Constructor<? extends Channel> CHANNEL_CONSTRUCTOR;
+
+    static {
+        IoHandlerFactory ioHandlerFactory = null;
+        Constructor<? extends ServerChannel> serverChannelConstructor = null;
+        Constructor<? extends Channel> channelConstructor = null;
+        try {
+            var ioUring = Class.forName(PACKAGE + "IoUring");
+            if ((boolean) ioUring.getMethod("isAvailable").invoke(null)) {
+                ioHandlerFactory = (IoHandlerFactory) Class.forName(PACKAGE + "IoUringHandler").getMethod("newFactory").invoke(null);
+                serverChannelConstructor = Class.forName(PACKAGE + "IoUringServerSocketChannel").asSubclass(ServerChannel.class)
+                        .getConstructor(EventLoop.class, EventLoopGroup.class);
+                channelConstructor = Class.forName(PACKAGE + "IoUringSocketChannel").asSubclass(Channel.class)
+                        .getConstructor(EventLoop.class);
+            }
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException exception) {
+            // The module is missing or does not match this version of netty
+            ioHandlerFactory = null;
+        }
+        IO_HANDLER_FACTORY = ioHandlerFactory;
+        SERVER_CHANNEL_CONSTRUCTOR = ioHandlerFactory == null ? null : serverChannelConstructor;
+        CHANNEL_CONSTRUCTOR = ioHandlerFactory == null ? null : channelConstructor;
+    }
+
+    private IoUringTransport() {
+    }
+
+    // The factories are only used while available() is true, Transport falls back to another transport otherwise
+    static boolean available() {
+        return IO_HANDLER_FACTORY != null;
+    }
+
+    static IoHandlerFactory ioHandlerFactory() {
+        return IO_HANDLER_FACTORY;
+    }
+
+    static ServerChannelFactory<? extends ServerChannel> serverChannelFactory() {
+        return (eventLoop, childEventLoopGroup) -> newInstance(SERVER_CHANNEL_CONSTRUCTOR, eventLoop, childEventLoopGroup);
+    }
+
+    static ChannelFactory<? extends Channel> channelFactory() {
+        return eventLoop -> newInstance(CHANNEL_CONSTRUCTOR, eventLoop);
+    }
+
+    private static <T> T newInstance(
+            Constructor<T> constructor,
+            Object... arguments
+    ) throws Exception {
+        try {
+            return constructor.newInstance(arguments);
+        } catch (InvocationTargetException exception) {
+            // Hand out what the channel itself threw, not the reflection wrapper
+            if (exception.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw exception;
+        }
+    }
+}
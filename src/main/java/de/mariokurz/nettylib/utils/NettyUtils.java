@@ -1,16 +1,17 @@
 package de.mariokurz.nettylib.utils;
 
+import de.mariokurz.nettylib.NettyLib;
 import io.netty5.channel.*;
-import io.netty5.channel.epoll.Epoll;
-import io.netty5.channel.epoll.EpollHandler;
-import io.netty5.channel.epoll.EpollServerSocketChannel;
-import io.netty5.channel.epoll.EpollSocketChannel;
-import io.netty5.channel.nio.NioHandler;
-import io.netty5.channel.socket.nio.NioServerSocketChannel;
-import io.netty5.channel.socket.nio.NioSocketChannel;
+import io.netty5.util.HashedWheelTimer;
+import io.netty5.util.Timer;
+import io.netty5.util.concurrent.DefaultThreadFactory;
 import io.netty5.util.concurrent.Future;
 import lombok.NonNull;
 
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
 /*
  * MIT License
  *
@@ -36,16 +37,93 @@ import lombok.NonNull;
  */
 public class NettyUtils {
 
+    // Forces a transport for the whole process, e.g. -Dnettylib.transport=NIO to compare transports under load
+    public static final String TRANSPORT_PROPERTY = "nettylib.transport";
+
+    private static volatile Transport transport;
+
     public static IoHandlerFactory createIoHandlerFactory() {
-        return Epoll.isAvailable() ? EpollHandler.newFactory() : NioHandler.newFactory();
+        return transport().ioHandlerFactory();
     }
 
     public static ServerChannelFactory<? extends ServerChannel> createServerChannelFactory() {
-        return Epoll.isAvailable() ? EpollServerSocketChannel::new : NioServerSocketChannel::new;
+        return transport().serverChannelFactory();
     }
 
     public static ChannelFactory<? extends Channel> createChannelFactory() {
-        return Epoll.isAvailable() ? EpollSocketChannel::new : NioSocketChannel::new;
+        return transport().channelFactory();
+    }
+
+    /**
+     * Retrieves the transport of all event loop groups and channels of the process. It is resolved on first use,
+     * from the system property {@value #TRANSPORT_PROPERTY} if set, otherwise the most efficient available transport is detected.
+     * Once resolved it never changes, an event loop group can only run channels of its own transport.
+     *
+     * @return The transport.
+     */
+    public static Transport transport() {
+        var current = transport;
+        if (current == null) {
+            synchronized (NettyUtils.class) {
+                if (transport == null) {
+                    transport = resolveTransport(System.getProperty(TRANSPORT_PROPERTY));
+                    NettyLib.debug(Level.INFO, NettyUtils.class, "Using transport " + transport);
+                }
+                current = transport;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Overrides the transport of the process, this has to happen before the first server or client is created.
+     *
+     * @param override The transport to use.
+     * @return True if the transport is used, false if it is not available or another transport is already in use.
+     */
+    public static synchronized boolean transport(
+            @NonNull Transport override
+    ) {
+        if (transport != null) {
+            if (transport != override) {
+                NettyLib.log(Level.SEVERE, NettyUtils.class, "Transport " + transport + " is already in use, ignoring " + override);
+            }
+            return transport == override;
+        }
+        if (!override.available()) {
+            NettyLib.log(Level.SEVERE, NettyUtils.class, "Transport " + override + " is not available");
+            return false;
+        }
+        transport = override;
+        return true;
+    }
+
+    private static Transport resolveTransport(
+            String name
+    ) {
+        if (name == null || name.isBlank()) {
+            return Transport.detect();
+        }
+        try {
+            var requested = Transport.valueOf(name.trim().toUpperCase(Locale.ROOT));
+            if (requested.available()) {
+                return requested;
+            }
+            NettyLib.log(Level.SEVERE, NettyUtils.class, "Transport " + requested + " is not available, detecting another one");
+        } catch (IllegalArgumentException exception) {
+            NettyLib.log(Level.SEVERE, NettyUtils.class, "Unknown transport " + name + ", detecting another one");
+        }
+        return Transport.detect();
+    }
+
+    /**
+     * Retrieves the timer shared by all timeouts of the library, e.g. query timeouts.
+     * A hashed wheel keeps scheduling and cancelling a timeout cheap, at a precision of 10 milliseconds.
+     *
+     * @return The shared timer.
+     */
+    public static Timer timeoutTimer() {
+        return TimeoutTimerHolder.TIMER;
     }
 
     public static <T> void awaitFuture(@NonNull Future<T> future) {
@@ -57,4 +135,11 @@ public class NettyUtils {
         }
     }
 
+    private static final class TimeoutTimerHolder {
+
+        private static final Timer TIMER = new HashedWheelTimer(
+                new DefaultThreadFactory("nettylib-timeout", true),
+                10, TimeUnit.MILLISECONDS);
+    }
+
 }
@@ -0,0 +1,109 @@
+package de.mariokurz.nettylib.utils;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 17:52 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import io.netty5.channel.EventLoopGroup;
+import io.netty5.channel.MultithreadEventLoopGroup;
+import io.netty5.util.concurrent.DefaultThreadFactory;
+import lombok.NonNull;
+
+import java.util.function.Supplier;
+
+/**
+ * An event loop group used by many clients, which is created by the first of them and shut down once the last one released it.
+ * Sharing one group keeps the number of IO threads of a process independent of the number of clients.
+ */
+public class SharedEventLoopGroup {
+
+    // Non-daemon like the groups clients created for themselves, a connected client keeps the process alive
+    private static final SharedEventLoopGroup DEFAULT_CLIENT_GROUP = new SharedEventLoopGroup(() -> new MultithreadEventLoopGroup(
+            Runtime.getRuntime().availableProcessors(),
+            new DefaultThreadFactory("nettylib-client"),
+            NettyUtils.createIoHandlerFactory()
+    ));
+
+    private final Supplier<EventLoopGroup> factory;
+    private EventLoopGroup eventLoopGroup;
+    private int references;
+
+    /**
+     * @param factory Creates the event loop group whenever it is retained while no group is alive.
+     */
+    public SharedEventLoopGroup(
+            @NonNull Supplier<EventLoopGroup> factory
+    ) {
+        this.factory = factory;
+    }
+
+    /**
+     * Retrieves the group shared by all clients of the process which are not given a group of their own.
+     * It has one thread per available processor.
+     *
+     * @return The default client group.
+     */
+    public static SharedEventLoopGroup defaultClientGroup() {
+        return DEFAULT_CLIENT_GROUP;
+    }
+
+    /**
+     * Retains the event loop group, creating it if nobody retained it before or it was shut down since.
+     * Every call has to be paired with one {@link #release()}.
+     *
+     * @return The event loop group.
+     */
+    public synchronized EventLoopGroup retain() {
+        if (this.eventLoopGroup == null || this.eventLoopGroup.isShuttingDown()) {
+            this.eventLoopGroup = this.factory.get();
+        }
+        this.references++;
+        return this.eventLoopGroup;
+    }
+
+    /**
+     * Releases the event loop group, it is shut down gracefully once nobody retains it anymore.
+     *
+     * @return True if the group was shut down.
+     */
+    public synchronized boolean release() {
+        if (this.references == 0) {
+            return false;
+        }
+        if (--this.references > 0) {
+            return false;
+        }
+        this.eventLoopGroup.shutdownGracefully();
+        this.eventLoopGroup = null;
+        return true;
+    }
+
+    /**
+     * Retrieves how many users retain the event loop group.
+     *
+     * @return The number of references.
+     */
+    public synchronized int references() {
+        return this.references;
+    }
+}
@@ -0,0 +1,146 @@
+package de.mariokurz.nettylib.utils;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 16:34 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.NettyLib;
+import io.netty5.channel.Channel;
+import io.netty5.channel.ChannelFactory;
+import io.netty5.channel.IoHandlerFactory;
+import io.netty5.channel.ServerChannel;
+import io.netty5.channel.ServerChannelFactory;
+import io.netty5.channel.epoll.Epoll;
+import io.netty5.channel.epoll.EpollHandler;
+import io.netty5.channel.epoll.EpollServerSocketChannel;
+import io.netty5.channel.epoll.EpollSocketChannel;
+import io.netty5.channel.nio.NioHandler;
+import io.netty5.channel.socket.nio.NioServerSocketChannel;
+import io.netty5.channel.socket.nio.NioSocketChannel;
+
+import java.util.logging.Level;
+
+/**
+ * The IO transports servers and clients can run on, ordered from the most to the least efficient one.
+ * The event loop groups and the channels of a process always use the same transport, see {@link NettyUtils#transport()}.
+ */
+public enum Transport {
+
+    /**
+     * Batches the syscalls of many small writes into one submission, needs a recent linux kernel and the netty io_uring module.
+     * netty 5.0.0.Alpha5 ships no such module, so until one is on the class path this transport is unavailable.
+     */
+    IO_URING,
+
+    /**
+     * Edge-triggered epoll, needs linux and the native epoll library of netty.
+     */
+    EPOLL,
+
+    /**
+     * The selectors of the JDK, available everywhere.
+     */
+    NIO;
+
+    /**
+     * Checks whether the transport can be used on this machine.
+     *
+     * @return True if the transport is available.
+     */
+    public boolean available() {
+        return switch (this) {
+            case IO_URING -> IoUringTransport.available();
+            case EPOLL -> Epoll.isAvailable();
+            case NIO -> true;
+        };
+    }
+
+    /**
+     * Creates the factory of the IO handlers an event loop group of this transport runs.
+     * If the transport is not available, the factory of the detected transport is used instead.
+     *
+     * @return The IO handler factory.
+     */
+    public IoHandlerFactory ioHandlerFactory() {
+        if (!this.available()) {
+            return this.fallback().ioHandlerFactory();
+        }
+        return switch (this) {
+            case IO_URING -> IoUringTransport.ioHandlerFactory();
+            case EPOLL -> EpollHandler.newFactory();
+            case NIO -> NioHandler.newFactory();
+        };
+    }
+
+    /**
+     * Creates the factory of the listening channels of this transport, or of the detected one if it is not available.
+     *
+     * @return The server channel factory.
+     */
+    public ServerChannelFactory<? extends ServerChannel> serverChannelFactory() {
+        if (!this.available()) {
+            return this.fallback().serverChannelFactory();
+        }
+        return switch (this) {
+            case IO_URING -> IoUringTransport.serverChannelFactory();
+            case EPOLL -> EpollServerSocketChannel::new;
+            case NIO -> NioServerSocketChannel::new;
+        };
+    }
+
+    /**
+     * Creates the factory of the client channels of this transport, or of the detected one if it is not available.
+     *
+     * @return The channel factory.
+     */
+    public ChannelFactory<? extends Channel> channelFactory() {
+        if (!this.available()) {
+            return this.fallback().channelFactory();
+        }
+        return switch (this) {
+            case IO_URING -> IoUringTransport.channelFactory();
+            case EPOLL -> EpollSocketChannel::new;
+            case NIO -> NioSocketChannel::new;
+        };
+    }
+
+    private Transport fallback() {
+        var fallback = detect();
+        NettyLib.log(Level.WARNING, Transport.class, "Transport " + this + " is not available, using " + fallback);
+        return fallback;
+    }
+
+    /**
+     * Detects the most efficient transport available on this machine.
+     *
+     * @return The detected transport, at least {@link #NIO}.
+     */
+    public static Transport detect() {
+        for (var transport : values()) {
+            if (transport.available()) {
+                return transport;
+            }
+        }
+        return NIO;
+    }
+}
@@ -0,0 +1,83 @@
+package de.mariokurz.nettylib.test;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 20:03 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.utils.ConcurrentLongMap;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import static de.mariokurz.nettylib.test.Checks.check;
+
+/**
+ * Checks probing, removal and resizing of the {@link ConcurrentLongMap} against a {@link HashMap}.
+ */
+public class ConcurrentLongMapTest {
+    public static void main(String[] args) {
+
+        // Key 0 marks a free slot, it is never stored
+        var map = new ConcurrentLongMap<String>();
+        check(map.get(0) == null && map.remove(0) == null, "key 0 is not found");
+
+        // More keys than slots of a new map collide and probe past each other, removing one must keep the others reachable
+        map = new ConcurrentLongMap<>();
+        for (long key = 1; key <= 64; key++) {
+            map.put(key << 32, "value-" + key);
+        }
+        map.remove(1L << 32);
+        for (long key = 2; key <= 64; key++) {
+            check(("value-" + key).equals(map.get(key << 32)), "probed key " + key + " is found after a removal");
+        }
+
+        // Grows far beyond the initial capacity and shrinks back to nothing
+        map = new ConcurrentLongMap<>();
+        var expected = new HashMap<Long, String>();
+        var random = new Random(42);
+        for (var i = 0; i < 200_000; i++) {
+            var key = random.nextInt(20_000) + 1L;
+            if (random.nextInt(3) == 0) {
+                check(same(expected.remove(key), map.remove(key)), "remove " + key);
+            } else {
+                var value = "value-" + i;
+                check(same(expected.put(key, value), map.put(key, value)), "put " + key);
+            }
+        }
+        check(map.size() == expected.size(), "size " + map.size() + " is " + expected.size());
+        check(new HashSet<>(map.values()).equals(new HashSet<>(expected.values())), "values match");
+        for (var entry : expected.entrySet()) {
+            check(entry.getValue().equals(map.get(entry.getKey())), "get " + entry.getKey());
+        }
+        check(map.putIfAbsent(expected.keySet().iterator().next(), "other") != null, "putIfAbsent keeps the value");
+        check(map.clear().size() == expected.size() && map.isEmpty(), "clear hands out every value");
+    }
+
+    private static boolean same(
+            Object expected,
+            Object actual
+    ) {
+        return expected == null ? actual == null : expected.equals(actual);
+    }
+}
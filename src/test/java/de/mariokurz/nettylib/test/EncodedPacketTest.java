@@ -0,0 +1,135 @@
+package de.mariokurz.nettylib.test;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 20:18 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.Codec;
+import de.mariokurz.nettylib.network.ChannelIdentity;
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.codec.AbstractMessageCodec;
+import de.mariokurz.nettylib.network.protocol.codec.EncodedPacket;
+import de.mariokurz.nettylib.network.protocol.codec.PacketBuffer;
+import de.mariokurz.nettylib.network.protocol.codec.dynamic.DynamicMessageCodec;
+import de.mariokurz.nettylib.network.protocol.query.QueryPacketManager;
+import de.mariokurz.nettylib.network.protocol.register.PacketRegistry;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingPacketManager;
+import io.netty5.buffer.Buffer;
+import io.netty5.channel.ChannelHandler;
+import io.netty5.channel.ChannelHandlerContext;
+import io.netty5.channel.embedded.EmbeddedChannel;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.mariokurz.nettylib.test.Checks.check;
+
+/**
+ * Checks that a packet sent to many network channels is encoded once per encoding of their codecs,
+ * and that codecs which are not stateless encode it in their own pipeline.
+ */
+public class EncodedPacketTest {
+
+    private static final QueryPacketManager QUERY_PACKET_MANAGER = new QueryPacketManager();
+    private static final RoutingPacketManager ROUTING_PACKET_MANAGER = new RoutingPacketManager();
+    private static final PacketRegistry PACKET_REGISTRY = new PacketRegistry();
+
+    public static void main(String[] args) {
+
+        var nettyFirst = networkChannel(new DynamicMessageCodec(Codec.DYNAMIC_SELF_NETTY, PACKET_REGISTRY));
+        var nettySecond = networkChannel(new DynamicMessageCodec(Codec.DYNAMIC_SELF_NETTY, PACKET_REGISTRY));
+        var osgan = networkChannel(new DynamicMessageCodec(Codec.DYNAMIC_SELF_OSGAN, PACKET_REGISTRY));
+        var custom = new CustomCodec();
+        var customChannel = networkChannel(custom);
+        var packet = new ValuePacket(42);
+
+        check(EncodedPacket.encoding(packet, nettyFirst.channel()).equals(EncodedPacket.encoding(packet, nettySecond.channel())),
+                "codecs of the same kind share their encoding");
+        check(!EncodedPacket.encoding(packet, nettyFirst.channel()).equals(EncodedPacket.encoding(packet, osgan.channel())),
+                "dynamic codecs for different codecs don't share their encoding");
+        check(EncodedPacket.encoding(packet, customChannel.channel()) == null, "a codec which is not stateless has no encoding");
+
+        var sent = NetworkChannel.sendPacketToAll(packet, List.of(nettyFirst, nettySecond, osgan, customChannel), null);
+        check(sent == 4, "every network channel is sent the packet");
+        var nettyBytes = written(nettyFirst);
+        check(Arrays.equals(nettyBytes, written(nettySecond)), "network channels with the same encoding get the same bytes");
+        check(!Arrays.equals(nettyBytes, written(osgan)), "a network channel with another encoding gets its own bytes");
+        check(custom.encoded.get() == 1 && Arrays.equals(written(customChannel), new byte[]{42}),
+                "a codec which is not stateless encodes the packet in its pipeline");
+
+        // Skipped and inactive receivers are not counted
+        nettySecond.inactive(true);
+        check(NetworkChannel.sendPacketToAll(packet, List.of(nettyFirst, nettySecond, customChannel), networkChannel -> networkChannel == customChannel) == 1,
+                "only active and not excluded network channels are sent the packet");
+
+        for (var networkChannel : List.of(nettyFirst, nettySecond, osgan, customChannel)) {
+            ((EmbeddedChannel) networkChannel.channel()).finishAndReleaseAll();
+        }
+    }
+
+    private static NetworkChannel networkChannel(
+            ChannelHandler codec
+    ) {
+        return new NetworkChannel(new ChannelIdentity("test", UUID.randomUUID()), QUERY_PACKET_MANAGER, ROUTING_PACKET_MANAGER,
+                new EmbeddedChannel(codec), false);
+    }
+
+    private static byte[] written(
+            NetworkChannel networkChannel
+    ) {
+        try (Buffer buffer = ((EmbeddedChannel) networkChannel.channel()).readOutbound()) {
+            var bytes = new byte[buffer.readableBytes()];
+            buffer.readBytes(bytes, 0, bytes.length);
+            return bytes;
+        }
+    }
+
+    public static class ValuePacket extends Packet implements Serializable {
+
+        private final int value;
+
+        public ValuePacket(int value) {
+            this.value = value;
+        }
+    }
+
+    // Counts its calls, so it is no stateless encoder
+    private static class CustomCodec extends AbstractMessageCodec {
+
+        private final AtomicInteger encoded = new AtomicInteger();
+
+        @Override
+        public void encode(ChannelHandlerContext ctx, Packet msg, PacketBuffer buffer) {
+            this.encoded.incrementAndGet();
+            buffer.buffer().writeByte((byte) ((ValuePacket) msg).value);
+        }
+
+        @Override
+        public void decode(ChannelHandlerContext ctx, PacketBuffer buffer) {
+        }
+    }
+}
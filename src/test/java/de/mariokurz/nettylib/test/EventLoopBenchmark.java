@@ -0,0 +1,117 @@
+package de.mariokurz.nettylib.test;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 19:51 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.Codec;
+import de.mariokurz.nettylib.network.ChannelIdentity;
+import de.mariokurz.nettylib.network.channel.InactiveAction;
+import de.mariokurz.nettylib.network.client.NetworkClient;
+import de.mariokurz.nettylib.network.server.EventLoopAssignment;
+import de.mariokurz.nettylib.network.server.NetworkServer;
+import de.mariokurz.nettylib.network.server.NetworkServerConfig;
+import de.mariokurz.nettylib.test.packet.BenchmarkPacket;
+import de.mariokurz.nettylib.test.receiver.BenchmarkPacketReceiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the query throughput of a server with many clients, to compare worker thread counts and event loop assignments.
+ * Run it once per configuration on a machine with several cores, the sandbox of a single core shows no scaling.
+ * <p>
+ * Arguments: [clients=64] [queries per client=10000] [worker threads=0, one per core] [assignment=ROUND_ROBIN]
+ * [payload bytes=256] [queries in flight per client=32] [port=9986]
+ */
+public class EventLoopBenchmark {
+    public static void main(String[] args) throws Exception {
+
+        var clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        var queries = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        var workerThreads = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        var assignment = args.length > 3 ? EventLoopAssignment.valueOf(args[3]) : EventLoopAssignment.ROUND_ROBIN;
+        var payload = new byte[args.length > 4 ? Integer.parseInt(args[4]) : 256];
+        var window = args.length > 5 ? Integer.parseInt(args[5]) : 32;
+        var port = args.length > 6 ? Integer.parseInt(args[6]) : 9986;
+
+        var server = new NetworkServer(false, InactiveAction.SHUTDOWN, Codec.DYNAMIC_SELF_NETTY, NetworkServerConfig.builder()
+                .workerThreads(workerThreads)
+                .eventLoopAssignment(assignment)
+                .build());
+        server.serverChannelTransmitter().packetReceiverManager().registerPacketHandler(BenchmarkPacket.class, BenchmarkPacketReceiver.class);
+        server.connect("127.0.0.1", port);
+        Thread.sleep(1000);
+
+        List<NetworkClient> networkClients = new ArrayList<>();
+        for (var i = 0; i < clients; i++) {
+            var client = new NetworkClient(new ChannelIdentity("Benchmark-" + i, UUID.randomUUID()), InactiveAction.SHUTDOWN,
+                    Codec.DYNAMIC_SELF_NETTY, false);
+            client.connect("127.0.0.1", port);
+            networkClients.add(client);
+        }
+        Thread.sleep(2000);
+
+        // Every client keeps a window of queries in flight, so all worker loops of the server are busy at once
+        var failed = new AtomicLong();
+        var done = new CountDownLatch(clients);
+        var start = System.nanoTime();
+        for (var client : networkClients) {
+            new Thread(() -> {
+                var networkChannel = client.thisNetworkChannel();
+                for (var sent = 0; sent < queries; sent += window) {
+                    List<CompletableFuture<BenchmarkPacket>> futures = new ArrayList<>();
+                    for (var i = sent; i < Math.min(sent + window, queries); i++) {
+                        futures.add(networkChannel.sendQueryFuture(new BenchmarkPacket(i, payload)));
+                    }
+                    for (var future : futures) {
+                        if (future.join() == null) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                }
+                done.countDown();
+            }, "benchmark-" + client.channelIdentity().namespace()).start();
+        }
+        done.await(10, TimeUnit.MINUTES);
+        var seconds = (System.nanoTime() - start) / 1e9;
+
+        var total = (long) clients * queries;
+        System.out.printf("%d clients, %d queries in %.2fs: %.0f queries/s, %d failed%n", clients, total, seconds, total / seconds, failed.get());
+        System.out.println("Connections per worker loop: " + server.serverChannelTransmitter().getNetworkChannels().stream()
+                .collect(Collectors.groupingBy(networkChannel -> networkChannel.channel().executor(), Collectors.counting()))
+                .values());
+
+        for (var client : networkClients) {
+            client.close();
+        }
+        server.close();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,87 @@
+package de.mariokurz.nettylib.test;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 20:26 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.ChannelIdentity;
+import de.mariokurz.nettylib.network.channel.NetworkChannel;
+import de.mariokurz.nettylib.network.channel.NetworkChannelRegistry;
+import de.mariokurz.nettylib.network.protocol.query.QueryPacketManager;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingPacketManager;
+import io.netty5.channel.Channel;
+import io.netty5.channel.embedded.EmbeddedChannel;
+
+import java.util.UUID;
+
+import static de.mariokurz.nettylib.test.Checks.check;
+
+/**
+ * Checks that the network channel attached to a netty channel follows registrations and removals,
+ * including the hand over of a connection shared by many network channels like on a client.
+ */
+public class NetworkChannelRegistryTest {
+
+    private static final QueryPacketManager QUERY_PACKET_MANAGER = new QueryPacketManager();
+    private static final RoutingPacketManager ROUTING_PACKET_MANAGER = new RoutingPacketManager();
+
+    public static void main(String[] args) {
+
+        var registry = new NetworkChannelRegistry();
+        var connection = new EmbeddedChannel();
+        check(NetworkChannel.of(connection) == null, "an unregistered channel has no network channel");
+
+        var first = networkChannel("Lobby", connection);
+        var second = networkChannel("lobby", connection);
+        registry.register(first);
+        registry.register(second);
+        check(NetworkChannel.of(connection) == first && registry.get(connection) == first, "the first network channel owns the connection");
+        check(registry.namespace("LOBBY").size() == 2, "namespaces are matched ignoring case");
+
+        // Removing the owner hands the shared connection to the network channel left on it
+        registry.unregister(first.channelIdentity().uniqueId());
+        check(NetworkChannel.of(connection) == second, "the connection is handed over");
+        check(registry.get(first.channelIdentity().uniqueId()) == null, "the removed network channel is gone");
+
+        // Replacing an identity moves it to the new connection
+        var reconnected = new EmbeddedChannel();
+        var replacement = new NetworkChannel(second.channelIdentity(), QUERY_PACKET_MANAGER, ROUTING_PACKET_MANAGER, reconnected, false);
+        check(registry.register(replacement) == second, "the replaced network channel is handed out");
+        check(NetworkChannel.of(connection) == null && NetworkChannel.of(reconnected) == replacement, "the attribute follows the replacement");
+        check(registry.values().size() == 1, "only the replacement is registered");
+
+        // Inactive network channels are not handed out
+        replacement.inactive(true);
+        check(registry.get(reconnected) == null && registry.get("lobby") == null, "inactive network channels are skipped");
+
+        connection.close();
+        reconnected.close();
+    }
+
+    private static NetworkChannel networkChannel(
+            String namespace,
+            Channel channel
+    ) {
+        return new NetworkChannel(new ChannelIdentity(namespace, UUID.randomUUID()), QUERY_PACKET_MANAGER, ROUTING_PACKET_MANAGER, channel, false);
+    }
+}
@@ -0,0 +1,88 @@
+package de.mariokurz.nettylib.test;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 20:47 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.protocol.Packet;
+import de.mariokurz.nettylib.network.protocol.interest.PacketInterestPacket;
+import de.mariokurz.nettylib.network.protocol.interest.PacketInterests;
+import de.mariokurz.nettylib.test.packet.AbstractPacket;
+import de.mariokurz.nettylib.test.packet.FirstPacket;
+import de.mariokurz.nettylib.test.packet.SecondPacket;
+import de.mariokurz.nettylib.test.packet.TestPacket;
+
+import java.util.List;
+
+import static de.mariokurz.nettylib.test.Checks.check;
+
+/**
+ * Checks which packets match the interests a client advertised, including receivers of super classes,
+ * of interfaces and of every packet.
+ */
+public class PacketInterestsTest {
+    public static void main(String[] args) {
+
+        // A client which advertised nothing yet receives everything
+        var packetInterests = new PacketInterests();
+        check(matches(packetInterests, TestPacket.class), "everything matches before the first advertisement");
+
+        packetInterests.update(new PacketInterestPacket(List.of(TestPacket.class.getName()), null, true));
+        check(matches(packetInterests, TestPacket.class), "advertised packet matches");
+        check(!matches(packetInterests, FirstPacket.class), "other packet does not match");
+
+        // A receiver of a super class receives its subclasses too
+        packetInterests.update(new PacketInterestPacket(List.of(AbstractPacket.class.getName()), null, false));
+        check(matches(packetInterests, FirstPacket.class) && matches(packetInterests, SecondPacket.class), "subclasses match");
+        check(matches(packetInterests, TestPacket.class), "additions keep the advertised packets");
+
+        packetInterests.update(new PacketInterestPacket(null, List.of(TestPacket.class.getName()), false));
+        check(!matches(packetInterests, TestPacket.class) && matches(packetInterests, FirstPacket.class), "removal drops one packet");
+
+        // A receiver of an interface receives the packets implementing it
+        packetInterests.update(new PacketInterestPacket(List.of(Marked.class.getName()), null, true));
+        check(matches(packetInterests, MarkedPacket.class), "packets implementing an advertised interface match");
+        check(!matches(packetInterests, FirstPacket.class), "packets without the interface don't match");
+
+        // Replacing starts over, a receiver of every packet matches all of them
+        packetInterests.update(new PacketInterestPacket(List.of(Packet.class.getName()), null, true));
+        check(matches(packetInterests, TestPacket.class) && matches(packetInterests, FirstPacket.class), "receiver of every packet");
+
+        packetInterests.update(new PacketInterestPacket(List.of(), null, true));
+        check(!matches(packetInterests, TestPacket.class), "nothing matches after replacing with nothing");
+        check(PacketInterests.typeIds(String.class).length == 0 && packetInterests.matches("no packet"), "objects which are no packets always match");
+    }
+
+    private interface Marked {
+    }
+
+    private static class MarkedPacket extends Packet implements Marked {
+    }
+
+    private static boolean matches(
+            PacketInterests packetInterests,
+            Class<? extends Packet> packetClass
+    ) {
+        return packetInterests.matches(PacketInterests.typeIds(packetClass));
+    }
+}
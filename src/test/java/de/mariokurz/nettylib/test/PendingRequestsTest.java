@@ -0,0 +1,72 @@
+package de.mariokurz.nettylib.test;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 20:11 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.channel.PendingRequests;
+import de.mariokurz.nettylib.network.protocol.Packet;
+import io.netty5.channel.embedded.EmbeddedChannel;
+
+import java.util.HashSet;
+
+import static de.mariokurz.nettylib.test.Checks.check;
+
+/**
+ * Checks that both sides of a connection hand out request IDs the other side never uses, and that
+ * shared IDs of scattered queries keep the shape of their side.
+ */
+public class PendingRequestsTest {
+    public static void main(String[] args) {
+
+        // The opening side has no parent, the accepting side has the server channel as parent
+        var opening = new EmbeddedChannel();
+        var accepting = new EmbeddedChannel(opening, new EmbeddedChannel().id(), true, false);
+        var initiator = PendingRequests.of(opening);
+        var acceptor = PendingRequests.of(accepting);
+        check(initiator.initiator() && !acceptor.initiator(), "sides are told apart by the parent");
+        check(PendingRequests.of(opening) == initiator, "one pending table per channel");
+
+        var ids = new HashSet<Long>();
+        for (var i = 0; i < 1000; i++) {
+            var initiatorId = initiator.nextRequestId();
+            var acceptorId = acceptor.nextRequestId();
+            check(initiator.ownsRequestId(initiatorId) && !acceptor.ownsRequestId(initiatorId), "initiator owns " + initiatorId);
+            check(acceptor.ownsRequestId(acceptorId) && !initiator.ownsRequestId(acceptorId), "acceptor owns " + acceptorId);
+            check(ids.add(initiatorId) && ids.add(acceptorId), "IDs of both sides are unique");
+        }
+        check(!initiator.ownsRequestId(Packet.NO_QUERY_ID) && !acceptor.ownsRequestId(Packet.NO_QUERY_ID), "nobody owns no query ID");
+
+        // Shared IDs are above every ID of a single connection and owned by the side they were made for
+        for (var i = 0; i < 1000; i++) {
+            var initiatorId = PendingRequests.nextSharedRequestId(true);
+            var acceptorId = PendingRequests.nextSharedRequestId(false);
+            check(initiatorId >= 1L << 62 && acceptorId >= 1L << 62, "shared IDs are reserved");
+            check(initiator.ownsRequestId(initiatorId) && acceptor.ownsRequestId(acceptorId), "shared IDs keep the shape of their side");
+            check(ids.add(initiatorId) && ids.add(acceptorId), "shared IDs are unique");
+        }
+
+        opening.close();
+        accepting.close();
+    }
+}
@@ -0,0 +1,86 @@
+package de.mariokurz.nettylib.test;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 20:34 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.network.ChannelIdentity;
+import de.mariokurz.nettylib.network.protocol.routing.RoutingTarget;
+import io.netty5.buffer.Buffer;
+import io.netty5.buffer.BufferAllocator;
+
+import java.util.List;
+import java.util.UUID;
+
+import static de.mariokurz.nettylib.test.Checks.check;
+
+/**
+ * Checks that routing targets survive the frame header unchanged, that identities listed twice are
+ * read only once, and that malformed headers are rejected.
+ */
+public class RoutingTargetTest {
+    public static void main(String[] args) {
+
+        var first = UUID.randomUUID();
+        var second = UUID.randomUUID();
+
+        var identities = roundTrip(RoutingTarget.identities(List.of(new ChannelIdentity("a", first), new ChannelIdentity("b", second))));
+        check(identities.type() == RoutingTarget.Type.IDENTITIES && identities.uniqueIds().equals(List.of(first, second)), "identities");
+        var namespace = roundTrip(RoutingTarget.namespace("Lobby-ü"));
+        check(namespace.type() == RoutingTarget.Type.NAMESPACE && namespace.name().equals("Lobby-ü"), "namespace");
+        var group = roundTrip(RoutingTarget.group("proxies"));
+        check(group.type() == RoutingTarget.Type.GROUP && group.name().equals("proxies"), "group");
+
+        // A sender writing the same identity twice must not make the server deliver twice
+        try (var buffer = BufferAllocator.onHeapUnpooled().allocate(64)) {
+            buffer.writeByte((byte) RoutingTarget.Type.IDENTITIES.ordinal()).writeInt(3);
+            for (var uniqueId : List.of(first, second, first)) {
+                buffer.writeLong(uniqueId.getMostSignificantBits()).writeLong(uniqueId.getLeastSignificantBits());
+            }
+            var read = RoutingTarget.read(buffer);
+            check(read != null && read.uniqueIds().equals(List.of(first, second)), "identities are deduplicated");
+        }
+
+        // More identities announced than the header holds, and an unknown type
+        try (var buffer = BufferAllocator.onHeapUnpooled().allocate(64)) {
+            buffer.writeByte((byte) RoutingTarget.Type.IDENTITIES.ordinal()).writeInt(2).writeLong(1).writeLong(2);
+            check(RoutingTarget.read(buffer) == null, "truncated identities are rejected");
+        }
+        try (var buffer = BufferAllocator.onHeapUnpooled().allocate(64)) {
+            buffer.writeByte((byte) 42).writeInt(0);
+            check(RoutingTarget.read(buffer) == null, "unknown types are rejected");
+        }
+    }
+
+    private static RoutingTarget roundTrip(
+            RoutingTarget routingTarget
+    ) {
+        try (Buffer buffer = BufferAllocator.onHeapUnpooled().allocate(routingTarget.encodedLength())) {
+            routingTarget.write(buffer);
+            check(buffer.readableBytes() == routingTarget.encodedLength(), "encoded length of " + routingTarget);
+            var read = RoutingTarget.read(buffer);
+            check(read != null && buffer.readableBytes() == 0, "read " + routingTarget);
+            return read;
+        }
+    }
+}
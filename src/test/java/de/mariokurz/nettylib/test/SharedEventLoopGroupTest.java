@@ -0,0 +1,64 @@
+package de.mariokurz.nettylib.test;
+
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 20:55 Mario Pascal K.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+import de.mariokurz.nettylib.utils.NettyUtils;
+import de.mariokurz.nettylib.utils.SharedEventLoopGroup;
+import io.netty5.channel.MultithreadEventLoopGroup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.mariokurz.nettylib.test.Checks.check;
+
+/**
+ * Checks that a shared event loop group is created once, shut down with the last release and created again
+ * when it is retained afterwards.
+ */
+public class SharedEventLoopGroupTest {
+    public static void main(String[] args) throws Exception {
+
+        var created = new AtomicInteger();
+        var sharedEventLoopGroup = new SharedEventLoopGroup(() -> {
+            created.incrementAndGet();
+            return new MultithreadEventLoopGroup(1, NettyUtils.createIoHandlerFactory());
+        });
+
+        var first = sharedEventLoopGroup.retain();
+        var second = sharedEventLoopGroup.retain();
+        check(first == second && created.get() == 1 && sharedEventLoopGroup.references() == 2, "retained groups are shared");
+
+        check(!sharedEventLoopGroup.release() && !first.isShuttingDown(), "the group stays while it is retained");
+        check(sharedEventLoopGroup.release() && first.isShuttingDown(), "the last release shuts the group down");
+        check(!sharedEventLoopGroup.release() && sharedEventLoopGroup.references() == 0, "releasing too often is ignored");
+
+        // A client connecting after the last one closed gets a new group
+        var third = sharedEventLoopGroup.retain();
+        check(third != first && !third.isShuttingDown() && created.get() == 2, "a new group is created after the shutdown");
+        check(sharedEventLoopGroup.release(), "the new group is shut down as well");
+
+        check(first.awaitTermination(5, TimeUnit.SECONDS) && third.awaitTermination(5, TimeUnit.SECONDS), "groups terminate");
+    }
+}